@@ -70,7 +70,12 @@ public class Example {
             List<StockPrice> prices = new ArrayList<StockPrice>(3);
 
             while (true) {
-                buffer.poll(prices);
+                try {
+                    buffer.take(prices);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
                 for (StockPrice price : prices) {
                     System.out.println(price);
                 }
@@ -79,11 +84,11 @@ public class Example {
         }
     }
 
-    public Example(CoalescingRingBuffer<String, StockPrice> buffer) {
+    public Example(BlockingCoalescingBuffer<String, StockPrice> buffer) {
         this.buffer = buffer;
     }
 
-    private final CoalescingRingBuffer<String, StockPrice> buffer;
+    private final BlockingCoalescingBuffer<String, StockPrice> buffer;
 
     public void run() throws InterruptedException {
         Producer producer = new Producer();
@@ -101,7 +106,8 @@ public class Example {
         // register an mbean to be able to view the state of the coalescing ring buffer
         CoalescingRingBufferViewer.register("Example", buffer, ManagementFactory.getPlatformMBeanServer());
 
-        Example example = new Example(buffer);
+        // the consumer blocks in take until the producer signals that prices have arrived
+        Example example = new Example(new BlockingCoalescingBuffer<String, StockPrice>(buffer, new BlockingWaitStrategy()));
         example.run();
     }
 
@@ -0,0 +1,49 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * Holds back each value until the next arrives, for buffers draining several underlying buffers into one batch
+ * where only the last buffer visited knows where the batch ends
+ */
+final class BatchEndHandler<K, V> implements ValueHandler<K, V> {
+    ValueHandler<? super K, ? super V> delegate;
+    private boolean holding;
+    private K heldKey;
+    private V heldValue;
+
+    @Override
+    public void onValue(K key, V value, boolean endOfBatch) {
+        if (holding) {
+            delegate.onValue(heldKey, heldValue, false);
+        }
+
+        holding = true;
+        heldKey = key;
+        heldValue = value;
+    }
+
+    void endBatch() {
+        if (holding) {
+            delegate.onValue(heldKey, heldValue, true);
+        }
+
+        holding = false;
+        heldKey = null;
+        heldValue = null;
+        delegate = null;
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a coalescing buffer to add blocking and timed polls,
+ * how the consumer waits is decided by the given {@link WaitStrategy}
+ */
+public final class BlockingCoalescingBuffer<K, V> implements CoalescingBuffer<K, V> {
+    private final CoalescingBuffer<K, V> buffer;
+    private final WaitStrategy waitStrategy;
+
+    public BlockingCoalescingBuffer(CoalescingBuffer<K, V> buffer, WaitStrategy waitStrategy) {
+        this.buffer = buffer;
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public int size() {
+        return buffer.size();
+    }
+
+    @Override
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return buffer.isEmpty();
+    }
+
+    @Override
+    public boolean isFull() {
+        return buffer.isFull();
+    }
+
+    @Override
+    public boolean offer(K key, V value) {
+        if (!buffer.offer(key, value)) {
+            return false;
+        }
+
+        waitStrategy.signalAllWhenBlocking();
+        return true;
+    }
+
+    @Override
+    public boolean offer(V value) {
+        if (!buffer.offer(value)) {
+            return false;
+        }
+
+        waitStrategy.signalAllWhenBlocking();
+        return true;
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return buffer.poll(bucket);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        return buffer.poll(bucket, maxItems);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return buffer.drain(handler);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        return buffer.drain(handler, maxItems);
+    }
+
+    /**
+     * add all available items to the given bucket, waiting for at least one to arrive
+     *
+     * @return the number of items added
+     */
+    public int take(Collection<? super V> bucket) throws InterruptedException {
+        return take(bucket, Integer.MAX_VALUE);
+    }
+
+    /**
+     * add a maximum number of items to the given bucket, waiting for at least one to arrive
+     *
+     * @return the number of items added
+     */
+    public int take(Collection<? super V> bucket, int maxItems) throws InterruptedException {
+        while (true) {
+            int count = buffer.poll(bucket, maxItems);
+            if (count > 0) {
+                return count;
+            }
+
+            waitStrategy.waitFor(buffer, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * add all available items to the given bucket, waiting up to the given timeout for at least one to arrive
+     *
+     * @return the number of items added, zero if the timeout elapsed
+     */
+    public int poll(Collection<? super V> bucket, long timeout, TimeUnit unit) throws InterruptedException {
+        return poll(bucket, Integer.MAX_VALUE, timeout, unit);
+    }
+
+    /**
+     * add a maximum number of items to the given bucket, waiting up to the given timeout for at least one to arrive
+     *
+     * @return the number of items added, zero if the timeout elapsed
+     */
+    public int poll(Collection<? super V> bucket, int maxItems, long timeout, TimeUnit unit) throws InterruptedException {
+        long timeoutNanos = unit.toNanos(timeout);
+        long start = System.nanoTime();
+
+        while (true) {
+            int count = buffer.poll(bucket, maxItems);
+            if (count > 0) {
+                return count;
+            }
+
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            if (remaining <= 0 || !waitStrategy.waitFor(buffer, remaining)) {
+                return 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocks the consumer on a condition that producers signal,
+ * producers only take the lock when a consumer has asked to be woken
+ */
+public final class BlockingWaitStrategy implements WaitStrategy {
+    private final Lock lock = new ReentrantLock();
+    private final Condition valuesAvailable = lock.newCondition();
+    private final AtomicBoolean signalNeeded = new AtomicBoolean(false);
+
+    @Override
+    public boolean waitFor(CoalescingBuffer<?, ?> buffer, long timeoutNanos) throws InterruptedException {
+        if (!buffer.isEmpty()) {
+            return true;
+        }
+
+        long remaining = timeoutNanos;
+        lock.lock();
+        try {
+            while (true) {
+                // the full fence of getAndSet pairs with the one in signalAllWhenBlocking so a wake up cannot be lost
+                signalNeeded.getAndSet(true);
+
+                if (!buffer.isEmpty()) {
+                    return true;
+                }
+
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                remaining = valuesAvailable.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+        if (signalNeeded.getAndSet(false)) {
+            lock.lock();
+            try {
+                valuesAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * Optional instrumentation for a {@link CoalescingRingBuffer}.
+ * Latency is recorded by the consumer as it polls and hot keys by the producer as it offers.
+ * A buffer created without latency instrumentation does not read the clock at all.
+ */
+public final class BufferInstrumentation {
+    private final Histogram offerToPollLatency = new Histogram();
+    private final Histogram batchSize = new Histogram();
+    private final boolean recordLatency;
+    private final HotKeys hotKeys;
+
+    public BufferInstrumentation() {
+        this(true, 0);
+    }
+
+    /**
+     * @param recordLatency whether to record the offer to poll latency and batch sizes
+     * @param numberOfHotKeys how many of the most frequently updated keys to track, zero to not track any
+     *        tracking costs a scan of this many keys on every keyed offer
+     */
+    public BufferInstrumentation(boolean recordLatency, int numberOfHotKeys) {
+        this.recordLatency = recordLatency;
+        this.hotKeys = numberOfHotKeys > 0 ? new HotKeys(numberOfHotKeys) : null;
+    }
+
+    public boolean recordsLatency() {
+        return recordLatency;
+    }
+
+    /**
+     * @return the most frequently updated keys or null if they are not being tracked
+     */
+    public HotKeys hotKeys() {
+        return hotKeys;
+    }
+
+    /**
+     * @return the nanoseconds between a delivered value being offered and the consumer polling it
+     */
+    public Histogram offerToPollLatency() {
+        return offerToPollLatency;
+    }
+
+    /**
+     * @return the number of values delivered by each poll or drain that delivered any
+     */
+    public Histogram batchSize() {
+        return batchSize;
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * Spins on the buffer, giving the lowest latency at the cost of burning a whole core
+ */
+public final class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public boolean waitFor(CoalescingBuffer<?, ?> buffer, long timeoutNanos) throws InterruptedException {
+        long start = System.nanoTime();
+
+        while (buffer.isEmpty()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            if (System.nanoTime() - start >= timeoutNanos) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+    }
+
+}
@@ -62,4 +62,18 @@ public interface CoalescingBuffer<K, V> {
      */
     int poll(Collection<? super V> bucket, int maxItems);
 
+    /**
+     * pass all available items to the given handler
+     *
+     * @return the number of items passed to the handler
+     */
+    int drain(ValueHandler<? super K, ? super V> handler);
+
+    /**
+     * pass a maximum number of items to the given handler
+     *
+     * @return the number of items passed to the handler
+     */
+    int drain(ValueHandler<? super K, ? super V> handler, int maxItems);
+
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multiplexes the consumers of many coalescing buffers onto the threads of an executor, so that the threads used
+ * grow with the load rather than with the number of buffers. Offers made through a {@link Registration} mark its buffer
+ * as dirty and the first offer to find it clean submits a single drain of the buffer to the executor.
+ * A drain passes at most maxItems values to the buffer's handler, then if values remain it submits itself again
+ * behind the drains of other buffers so that a busy buffer cannot starve the rest.
+ * A buffer is never drained by more than one thread at a time, so each still has a single consumer, and its handler
+ * may keep state without synchronisation. Values keep collapsing while a buffer waits for its drain to run.
+ */
+public final class CoalescingBufferProcessor {
+    private final Executor executor;
+    private final int defaultMaxItems;
+
+    private final List<Registration<?, ?>> registrations = new CopyOnWriteArrayList<Registration<?, ?>>();
+
+    /**
+     * @param defaultMaxItems the most values a single drain passes to the handler of a buffer registered without a limit of its own
+     */
+    public CoalescingBufferProcessor(Executor executor, int defaultMaxItems) {
+        this.executor = executor;
+        this.defaultMaxItems = defaultMaxItems;
+    }
+
+    public <K, V> Registration<K, V> register(CoalescingBuffer<K, V> buffer, ValueHandler<? super K, ? super V> handler) {
+        return register(buffer, handler, defaultMaxItems);
+    }
+
+    /**
+     * @param maxItems the most values a single drain of this buffer passes to the handler
+     */
+    public <K, V> Registration<K, V> register(CoalescingBuffer<K, V> buffer, ValueHandler<? super K, ? super V> handler, int maxItems) {
+        Registration<K, V> registration = new Registration<K, V>(this, buffer, handler, maxItems);
+        registrations.add(registration);
+        return registration;
+    }
+
+    /**
+     * @return the number of drains run across every buffer
+     */
+    public long drainCount() {
+        long drainCount = 0;
+        for (Registration<?, ?> registration : registrations) {
+            drainCount += registration.drainCount();
+        }
+        return drainCount;
+    }
+
+    /**
+     * The producer side of a buffer registered with a processor, offers must come from a single producer thread
+     * unless the buffer itself accepts many
+     */
+    public static final class Registration<K, V> {
+        private final CoalescingBufferProcessor processor;
+        private final CoalescingBuffer<K, V> buffer;
+        private final ValueHandler<? super K, ? super V> handler;
+        private final int maxItems;
+
+        private final AtomicBoolean scheduled = new AtomicBoolean(false); // true from submitting a drain until it finds the buffer empty
+        private final AtomicLong drainCount = new AtomicLong(0); // only written by the drain, which never runs on two threads at once
+
+        private final Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    buffer.drain(handler, maxItems);
+                } finally {
+                    drainCount.lazySet(drainCount.get() + 1);
+                    reschedule();
+                }
+            }
+        };
+
+        private Registration(CoalescingBufferProcessor processor, CoalescingBuffer<K, V> buffer, ValueHandler<? super K, ? super V> handler, int maxItems) {
+            this.processor = processor;
+            this.buffer = buffer;
+            this.handler = handler;
+            this.maxItems = maxItems;
+        }
+
+        public CoalescingBuffer<K, V> buffer() {
+            return buffer;
+        }
+
+        /**
+         * @see CoalescingBuffer#offer(Object, Object)
+         */
+        public boolean offer(K key, V value) {
+            if (!buffer.offer(key, value)) {
+                return false;
+            }
+
+            schedule();
+            return true;
+        }
+
+        /**
+         * @see CoalescingBuffer#offer(Object)
+         */
+        public boolean offer(V value) {
+            if (!buffer.offer(value)) {
+                return false;
+            }
+
+            schedule();
+            return true;
+        }
+
+        /**
+         * Submit a drain if none is pending, for producers that offer to the buffer directly
+         */
+        public void schedule() {
+            // swapping rather than reading the flag orders the offer before the drain's swap that clears it
+            if (!scheduled.getAndSet(true)) {
+                processor.executor.execute(drain);
+            }
+        }
+
+        /**
+         * @return the number of drains run for this buffer
+         */
+        public long drainCount() {
+            return drainCount.get();
+        }
+
+        private void reschedule() {
+            if (!buffer.isEmpty()) {
+                processor.executor.execute(drain); // still scheduled, go to the back of the queue
+                return;
+            }
+
+            scheduled.getAndSet(false);
+
+            // a producer that swapped the flag before we cleared it left the drain to us, and its offer is visible to this check
+            if (!buffer.isEmpty() && !scheduled.getAndSet(true)) {
+                processor.executor.execute(drain);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.lang.Math.min;
+
+/**
+ * Publishes the values of a coalescing buffer to a single subscriber as it signals demand,
+ * following the Reactive Streams publisher rules with interfaces of the same shape as Reactive Streams and java.util.concurrent.Flow.
+ * Values are delivered from tasks run on the given executor only while there is demand and values to deliver,
+ * so no thread spins waiting for either. While the subscriber holds back demand, values for a key carry on collapsing in the buffer.
+ * Offers must come from a single producer thread and go through the publisher so that it knows to deliver them.
+ */
+public final class CoalescingPublisher<K, V> {
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T value);
+
+        void onError(Throwable error);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+
+        /**
+         * Allow up to n more values to be delivered, a non-positive n fails the subscription
+         */
+        void request(long n);
+
+        void cancel();
+    }
+
+    private final CoalescingBuffer<K, V> buffer;
+    private final Executor executor;
+
+    private final AtomicReference<Subscriber<? super V>> subscriber = new AtomicReference<Subscriber<? super V>>();
+    private final AtomicLong requested = new AtomicLong(0);
+    private final AtomicInteger wip = new AtomicInteger(0); // counts signals, only the signal that takes it from zero runs the delivery loop
+    private final AtomicBoolean offered = new AtomicBoolean(false); // set by offers, cleared by the delivery loop before it polls
+    private final Delivery delivery = new Delivery();
+
+    private volatile boolean subscribed;
+    private volatile boolean ready; // set once onSubscribe has returned
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+    private volatile Throwable invalidRequest;
+
+    public CoalescingPublisher(CoalescingBuffer<K, V> buffer, Executor executor) {
+        this.buffer = buffer;
+        this.executor = executor;
+    }
+
+    /**
+     * @return false if the buffer was full or the publisher has been completed
+     * @see CoalescingBuffer#offer(Object, Object)
+     */
+    public boolean offer(K key, V value) {
+        if (completed || !buffer.offer(key, value)) {
+            return false;
+        }
+
+        signalOffered();
+        return true;
+    }
+
+    /**
+     * @return false if the buffer was full or the publisher has been completed
+     * @see CoalescingBuffer#offer(Object)
+     */
+    public boolean offer(V value) {
+        if (completed || !buffer.offer(value)) {
+            return false;
+        }
+
+        signalOffered();
+        return true;
+    }
+
+    private void signalOffered() {
+        // while the flag is still set a delivery has yet to clear it, and will see this offer when it polls after clearing it
+        if (!offered.getAndSet(true) && requested.get() > 0 && !cancelled) {
+            signal();
+        }
+    }
+
+    /**
+     * Complete the subscriber once the values already offered have been delivered, later offers are refused
+     */
+    public void complete() {
+        completed = true;
+        signal();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Subscribe the only subscriber this publisher will accept, any other is sent an error
+     */
+    public void subscribe(Subscriber<? super V> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+
+        if (subscribed || !this.subscriber.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("a coalescing publisher only accepts a single subscriber"));
+            return;
+        }
+
+        // the delivery loop ignores the subscriber until onSubscribe returns so that it is never signalled concurrently
+        subscribed = true;
+        subscriber.onSubscribe(new BufferSubscription());
+        ready = true;
+        signal();
+    }
+
+    /**
+     * An ended subscription leaves the count raised so that no further delivery is ever run
+     */
+    private void signal() {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(delivery);
+        }
+    }
+
+    private final class BufferSubscription implements Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("non-positive request " + n);
+                signal();
+                return;
+            }
+
+            while (true) {
+                long current = requested.get();
+                long next = current + n < 0 ? Long.MAX_VALUE : current + n; // demand of Long.MAX_VALUE is unbounded
+
+                if (requested.compareAndSet(current, next)) {
+                    break;
+                }
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            signal(); // let the delivery loop drop the subscriber
+        }
+    }
+
+    private final class Delivery implements Runnable, ValueHandler<K, V> {
+        private Subscriber<? super V> target;
+
+        @Override
+        public void run() {
+            int missed = 1;
+
+            while (true) {
+                boolean ended;
+                try {
+                    ended = deliver();
+                } catch (RuntimeException e) {
+                    end(); // a subscriber that throws has broken the rules, so treat it as cancelled
+                    throw e;
+                } finally {
+                    target = null;
+                }
+
+                if (ended) {
+                    return;
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return true once the subscription has ended
+         */
+        private boolean deliver() {
+            if (cancelled) {
+                end();
+                return true;
+            }
+
+            Subscriber<? super V> target = subscriber.get();
+            if (!ready || target == null) {
+                return false;
+            }
+            this.target = target;
+
+            boolean completing = completed; // read before polling so that every value offered before completion is seen
+            long delivered = 0;
+            long demand = requested.get();
+
+            while (!cancelled && invalidRequest == null && delivered < demand) {
+                offered.getAndSet(false);
+                int count = buffer.drain(this, (int) min(demand - delivered, Integer.MAX_VALUE));
+                if (count == 0) {
+                    break;
+                }
+                delivered += count;
+            }
+
+            if (delivered > 0 && demand != Long.MAX_VALUE) {
+                requested.addAndGet(-delivered);
+            }
+
+            if (cancelled) {
+                end();
+                return true;
+            }
+
+            if (invalidRequest != null) {
+                end();
+                target.onError(invalidRequest);
+                return true;
+            }
+
+            if (completing && buffer.isEmpty()) {
+                end();
+                target.onComplete();
+                return true;
+            }
+
+            return false;
+        }
+
+        private void end() {
+            cancelled = true;
+            subscriber.set(null);
+        }
+
+        @Override
+        public void onValue(K key, V value, boolean endOfBatch) {
+            if (!cancelled) {
+                target.onNext(value);
+            }
+        }
+    }
+
+}
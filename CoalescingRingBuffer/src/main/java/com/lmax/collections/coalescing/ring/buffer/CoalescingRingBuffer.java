@@ -15,53 +15,70 @@
 package com.lmax.collections.coalescing.ring.buffer;
 
 import java.util.Collection;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static java.lang.Math.min;
 
-public final class CoalescingRingBuffer<K, V> implements CoalescingBuffer<K, V> {
+public final class CoalescingRingBuffer<K, V> extends RingBufferSequences implements CoalescingBuffer<K, V> {
+
+    /**
+     * The deadline of a value that never expires
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
 
-    private final AtomicLong nextWrite = new AtomicLong(1); // the next write index
-    private long lastCleaned = 0; // the last index that was nulled out by the producer
-    private final AtomicLong rejectionCount = new AtomicLong(0);
     private final K[] keys;
     private final AtomicReferenceArray<V> values;
+    private final long[] deadlines;
+
+    private final KeyIndex keyIndex; // producer owned
 
     @SuppressWarnings("unchecked")
     private final K nonCollapsibleKey = (K) new Object();
     private final int mask;
     private final int capacity;
 
-    private volatile long firstWrite = 1; // the oldest slot that is is safe to write to
-    private final AtomicLong lastRead = new AtomicLong(0); // the newest slot that it is safe to overwrite
+    private final BufferInstrumentation instrumentation; // null when the buffer is not instrumented
+    private final long[] offerTimes; // null when latency is not recorded
+    private final HotKeys hotKeys; // null when hot keys are not tracked
+
+    private final Clock clock;
+    private final ExpiryHandler<? super K, ? super V> expiryHandler; // null when expired values are only counted
+
+    private final ArraySource<K, V> arraySource = new ArraySource<K, V>(); // producer owned
 
-    @SuppressWarnings("unchecked")
     public CoalescingRingBuffer(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param instrumentation records the offer to poll latency, batch sizes and hot keys, or null to disable instrumentation
+     */
+    public CoalescingRingBuffer(int capacity, BufferInstrumentation instrumentation) {
+        this(capacity, instrumentation, Clock.SYSTEM, null);
+    }
+
+    /**
+     * @param instrumentation records the offer to poll latency, batch sizes and hot keys, or null to disable instrumentation
+     * @param clock the clock that deadlines given on offer are compared against
+     * @param expiryHandler told about every value dropped on poll because its deadline had passed, or null to only count them
+     */
+    @SuppressWarnings("unchecked")
+    public CoalescingRingBuffer(int capacity, BufferInstrumentation instrumentation, Clock clock, ExpiryHandler<? super K, ? super V> expiryHandler) {
         this.capacity = nextPowerOfTwo(capacity);
         this.mask = this.capacity - 1;
 
         this.keys = (K[]) new Object[this.capacity];
         this.values = new AtomicReferenceArray<V>(this.capacity);
-    }
-
-    private int nextPowerOfTwo(int value) {
-        return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
-    }
+        this.deadlines = new long[this.capacity];
 
-    @Override
-    public int size() {
+        this.keyIndex = new KeyIndex(this.capacity);
 
-        // loop until you get a consistent read of both volatile indices
-        while (true) {
-            long lastReadBefore     = lastRead.get();
-            long currentNextWrite   = this.nextWrite.get();
-            long lastReadAfter      = lastRead.get();
+        this.instrumentation = instrumentation;
+        this.offerTimes = instrumentation != null && instrumentation.recordsLatency() ? new long[this.capacity] : null;
+        this.hotKeys = instrumentation == null ? null : instrumentation.hotKeys();
 
-            if (lastReadBefore == lastReadAfter) {
-                return (int) (currentNextWrite - lastReadBefore) - 1;
-            }
-        }
+        this.clock = clock;
+        this.expiryHandler = expiryHandler;
     }
 
     @Override
@@ -70,20 +87,55 @@ public final class CoalescingRingBuffer<K, V> implements CoalescingBuffer<K, V>
     }
 
     public long rejectionCount() {
-        return rejectionCount.get();
+        return rejectionCount;
+    }
+
+    /**
+     * @return the number of keyed offers that updated a value already in the buffer
+     */
+    public long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of keyed offers that added a new entry to the buffer
+     */
+    public long appendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * @return the number of offers without a key that were added to the buffer
+     */
+    public long nonCollapsibleCount() {
+        return nonCollapsibleCount;
+    }
+
+    /**
+     * @return the number of values dropped on poll because their deadline had passed
+     */
+    public long expiredCount() {
+        return expiredCount;
     }
 
     public long nextWrite() {
-        return nextWrite.get();
+        return nextWrite;
     }
 
     public long firstWrite() {
         return firstWrite;
     }
 
+    /**
+     * @return the instrumentation this buffer records to or null if it is not instrumented
+     */
+    public BufferInstrumentation instrumentation() {
+        return instrumentation;
+    }
+
     @Override
     public boolean isEmpty() {
-        return firstWrite == nextWrite.get();
+        return firstWrite == nextWrite;
     }
 
     @Override
@@ -93,43 +145,175 @@ public final class CoalescingRingBuffer<K, V> implements CoalescingBuffer<K, V>
 
     @Override
     public boolean offer(K key, V value) {
-        long nextWrite = this.nextWrite.get();
+        return offerWithDeadline(key, value, NO_DEADLINE);
+    }
 
-        for (long updatePosition = firstWrite; updatePosition < nextWrite; updatePosition++) {
-            int index = mask(updatePosition);
+    /**
+     * Add a value to be collapsed on the given key that is dropped rather than polled once its deadline has passed,
+     * a value that replaces a pending value for the key brings its own deadline
+     *
+     * @param deadlineNanos the time by the buffer's clock after which the value is dropped, or {@link #NO_DEADLINE}
+     * @return true if the value was added or false if the buffer was full
+     */
+    public boolean offerWithDeadline(K key, V value, long deadlineNanos) {
+        if (hotKeys != null) {
+            hotKeys.record(key);
+        }
 
-            if(key.equals(keys[index])) {
-                values.set(index, value);
+        int bucket = keyIndex.bucket(key);
+        if (coalesce(bucket, key, value, deadlineNanos)) {
+            COALESCED_COUNT.lazySet(this, coalescedCount + 1);
+            return true;
+        }
 
-                if (updatePosition >= firstWrite) {  // check that the reader has not read beyond our update point yet
-                    return true;
-                } else {
-                    break;
-                }
-            }
+        long nextWrite = this.nextWrite;
+        if (!add(key, value, deadlineNanos)) {
+            return false;
         }
 
-        return add(key, value);
+        keyIndex.index(bucket, nextWrite);
+        APPENDED_COUNT.lazySet(this, appendedCount + 1);
+        return true;
     }
 
     @Override
     public boolean offer(V value) {
-        return add(nonCollapsibleKey, value);
+        return offerWithDeadline(value, NO_DEADLINE);
+    }
+
+    /**
+     * Add a value that will never be collapsed and is dropped rather than polled once its deadline has passed
+     *
+     * @param deadlineNanos the time by the buffer's clock after which the value is dropped, or {@link #NO_DEADLINE}
+     * @return true if the value was added or false if the buffer was full
+     */
+    public boolean offerWithDeadline(V value, long deadlineNanos) {
+        if (!add(nonCollapsibleKey, value, deadlineNanos)) {
+            return false;
+        }
+
+        NON_COLLAPSIBLE_COUNT.lazySet(this, nonCollapsibleCount + 1);
+        return true;
+    }
+
+    /**
+     * Add a batch of values, collapsing each on its key, in a single pass that makes every appended value
+     * visible to the consumer at once when the batch ends. Values that replace a pending value are visible as soon as they are written.
+     * Offering stops at the first value that needs a new entry when the buffer is full.
+     *
+     * @param keys the key for each value, null for a value that will never be collapsed
+     * @return the number of values from the start of the batch that were added
+     * @throws IllegalArgumentException if there is not exactly one key for each value, before any value is added
+     */
+    public int offerAll(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException(keys.length + " keys were offered for " + values.length + " values");
+        }
+
+        arraySource.keys = keys;
+        arraySource.values = values;
+
+        try {
+            return offerAll(arraySource);
+        } finally {
+            arraySource.keys = null;
+            arraySource.values = null;
+        }
+    }
+
+    /**
+     * Add a batch of values as {@link #offerAll(Object[], Object[])} does, reading them from the given source.
+     * If the source throws, the values read before the failure are still added and made visible.
+     *
+     * @return the number of values from the start of the batch that were added
+     */
+    public int offerAll(ValueSource<? extends K, ? extends V> source) {
+        int size = source.size();
+        long nextWrite = this.nextWrite;
+        long coalesced = 0;
+        long appended = 0;
+        int offered = 0;
+
+        cleanUp();
+        try {
+            for (; offered < size; offered++) {
+                K key = source.keyAt(offered);
+                V value = source.valueAt(offered);
+                int bucket = 0;
+
+                if (key != null) {
+                    if (hotKeys != null) {
+                        hotKeys.record(key);
+                    }
+
+                    bucket = keyIndex.bucket(key);
+                    if (coalesce(bucket, key, value, NO_DEADLINE)) {
+                        coalesced++;
+                        continue;
+                    }
+                }
+
+                // lastCleaned stands in for the last read sequence as slots up to it are all we may write over
+                if (nextWrite - lastCleaned > capacity) {
+                    cleanUp();
+                    if (nextWrite - lastCleaned > capacity) {
+                        REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+                        break;
+                    }
+                }
+
+                if (key != null) {
+                    write(nextWrite, key, value, NO_DEADLINE);
+                    keyIndex.index(bucket, nextWrite);
+                    appended++;
+                } else {
+                    write(nextWrite, nonCollapsibleKey, value, NO_DEADLINE);
+                }
+                nextWrite++;
+            }
+        } finally {
+            // publish what was written even if the source failed, as the index already points at those slots
+            NEXT_WRITE.lazySet(this, nextWrite);
+            COALESCED_COUNT.lazySet(this, coalescedCount + coalesced);
+            APPENDED_COUNT.lazySet(this, appendedCount + appended);
+            NON_COLLAPSIBLE_COUNT.lazySet(this, nonCollapsibleCount + offered - coalesced - appended);
+        }
+        return offered;
+    }
+
+    private boolean coalesce(int bucket, K key, V value, long deadlineNanos) {
+
+        for (long updatePosition = keyIndex.newest(bucket); updatePosition >= firstWrite; updatePosition = keyIndex.previous(updatePosition)) {
+            int index = mask(updatePosition);
+
+            if(key.equals(keys[index])) {
+                if (offerTimes != null) {
+                    offerTimes[index] = System.nanoTime();
+                }
+                deadlines[index] = deadlineNanos;
+                values.set(index, value);
+
+                // check that the reader has not read beyond our update point yet
+                return updatePosition >= firstWrite;
+            }
+        }
+
+        return false;
     }
 
-    private boolean add(K key, V value) {
+    private boolean add(K key, V value, long deadlineNanos) {
         if (isFull()) {
-            rejectionCount.lazySet(rejectionCount.get() + 1);
+            REJECTION_COUNT.lazySet(this, rejectionCount + 1);
             return false;
         }
 
         cleanUp();
-        store(key, value);
+        store(key, value, deadlineNanos);
         return true;
     }
 
     private void cleanUp() {
-        long lastRead = this.lastRead.get();
+        long lastRead = this.lastRead;
 
         if (lastRead == lastCleaned) {
             return;
@@ -142,43 +326,160 @@ public final class CoalescingRingBuffer<K, V> implements CoalescingBuffer<K, V>
         }
     }
 
-    private void store(K key, V value) {
-        long nextWrite = this.nextWrite.get();
-        int index = mask(nextWrite);
+    private void store(K key, V value, long deadlineNanos) {
+        long nextWrite = this.nextWrite;
+        write(nextWrite, key, value, deadlineNanos);
+        NEXT_WRITE.lazySet(this, nextWrite + 1);
+    }
+
+    private void write(long sequence, K key, V value, long deadlineNanos) {
+        int index = mask(sequence);
 
         keys[index] = key;
+        if (offerTimes != null) {
+            offerTimes[index] = System.nanoTime();
+        }
+        deadlines[index] = deadlineNanos;
         values.set(index, value);
-
-        this.nextWrite.lazySet(nextWrite + 1);
     }
 
     @Override
     public int poll(Collection<? super V> bucket) {
-        return fill(bucket, nextWrite.get());
+        return fill(bucket, nextWrite);
     }
 
     @Override
     public int poll(Collection<? super V> bucket, int maxItems) {
-        long claimUpTo = min(firstWrite + maxItems, nextWrite.get());
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
         return fill(bucket, claimUpTo);
     }
 
     private int fill(Collection<? super V> bucket, long claimUpTo) {
         firstWrite = claimUpTo;
-        long lastRead = this.lastRead.get();
+        long lastRead = this.lastRead;
+        long now = offerTimes != null ? System.nanoTime() : 0;
+        int count = 0;
 
         for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
             int index = mask(readIndex);
-            bucket.add(values.get(index));
+            V value = values.get(index);
+
+            if (!hasExpired(index, value)) {
+                bucket.add(value);
+                count++;
+                if (offerTimes != null) {
+                    recordLatency(index, now);
+                }
+            }
             values.set(index, null);
         }
 
-        this.lastRead.lazySet(claimUpTo - 1);
-        return (int) (claimUpTo - lastRead - 1);
+        if (offerTimes != null) {
+            recordBatch(count);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return count;
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return dispatch(handler, nextWrite);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return dispatch(handler, claimUpTo);
+    }
+
+    private int dispatch(ValueHandler<? super K, ? super V> handler, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+        long now = offerTimes != null ? System.nanoTime() : 0;
+        int count = 0;
+
+        // hold each value back until the next is found as expired values hide where the batch ends
+        K heldKey = null;
+        V heldValue = null;
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            V value = values.get(index);
+
+            if (!hasExpired(index, value)) {
+                if (count++ > 0) {
+                    handler.onValue(heldKey, heldValue, false);
+                }
+                K key = keys[index];
+                heldKey = key == nonCollapsibleKey ? null : key;
+                heldValue = value;
+                if (offerTimes != null) {
+                    recordLatency(index, now);
+                }
+            }
+            values.set(index, null);
+        }
+
+        if (count > 0) {
+            handler.onValue(heldKey, heldValue, true);
+        }
+
+        if (offerTimes != null) {
+            recordBatch(count);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return count;
+    }
+
+    private boolean hasExpired(int index, V value) {
+        long deadline = deadlines[index];
+        if (deadline == NO_DEADLINE || clock.nanoTime() - deadline <= 0) {
+            return false;
+        }
+
+        EXPIRED_COUNT.lazySet(this, expiredCount + 1);
+        if (expiryHandler != null) {
+            K key = keys[index];
+            expiryHandler.onExpired(key == nonCollapsibleKey ? null : key, value);
+        }
+        return true;
+    }
+
+    // expired values are left out as the latency histogram only covers values that were delivered
+    private void recordLatency(int index, long now) {
+        instrumentation.offerToPollLatency().record(now - offerTimes[index]);
+    }
+
+    private void recordBatch(int delivered) {
+        if (delivered > 0) {
+            instrumentation.batchSize().record(delivered);
+        }
     }
 
     private int mask(long value) {
         return ((int) value) & mask;
     }
 
+    private static final class ArraySource<K, V> implements ValueSource<K, V> {
+        private K[] keys;
+        private V[] values;
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+
+        @Override
+        public K keyAt(int index) {
+            return keys[index];
+        }
+
+        @Override
+        public V valueAt(int index) {
+            return values[index];
+        }
+    }
+
 }
\ No newline at end of file
@@ -18,42 +18,227 @@ import javax.management.JMException;
 import javax.management.MBeanServer;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import java.util.Arrays;
 
 public class CoalescingRingBufferViewer implements CoalescingRingBufferViewerMBean {
-    private final CoalescingRingBuffer<?, ?> buffer;
+    private static final Histogram EMPTY_HISTOGRAM = new Histogram();
+
+    private final CoalescingRingBuffer<?, ?>[] buffers; // a single buffer or the shards of a sharded buffer, totalled by every count
 
     public CoalescingRingBufferViewer(CoalescingRingBuffer<?, ?> buffer) {
-        this.buffer = buffer;
+        this.buffers = new CoalescingRingBuffer<?, ?>[] {buffer};
+    }
+
+    public CoalescingRingBufferViewer(ShardedCoalescingBuffer<?, ?> buffer) {
+        this.buffers = new CoalescingRingBuffer<?, ?>[buffer.numberOfShards()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = buffer.shard(i);
+        }
     }
 
     @Override
     public int getSize() {
-        return buffer.size();
+        int size = 0;
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            size += buffer.size();
+        }
+        return size;
     }
 
     @Override
     public int getCapacity() {
-        return buffer.capacity();
+        int capacity = 0;
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            capacity += buffer.capacity();
+        }
+        return capacity;
     }
 
     @Override
     public int getRemainingCapacity() {
-        return buffer.capacity() - buffer.size();
+        return getCapacity() - getSize();
     }
 
     @Override
     public long getRejectionCount() {
-        return buffer.rejectionCount();
+        long rejectionCount = 0;
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            rejectionCount += buffer.rejectionCount();
+        }
+        return rejectionCount;
     }
 
     @Override
     public long getProducerIndex() {
-        return buffer.nextWrite();
+        return buffers.length == 1 ? buffers[0].nextWrite() : -1;
     }
 
     @Override
     public long getConsumerIndex() {
-        return buffer.firstWrite();
+        return buffers.length == 1 ? buffers[0].firstWrite() : -1;
+    }
+
+    @Override
+    public long[] getProducerIndices() {
+        long[] nextWrites = new long[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            nextWrites[i] = buffers[i].nextWrite();
+        }
+        return nextWrites;
+    }
+
+    @Override
+    public long[] getConsumerIndices() {
+        long[] firstWrites = new long[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            firstWrites[i] = buffers[i].firstWrite();
+        }
+        return firstWrites;
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        long coalescedCount = 0;
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            coalescedCount += buffer.coalescedCount();
+        }
+        return coalescedCount;
+    }
+
+    @Override
+    public long getAppendedCount() {
+        long appendedCount = 0;
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            appendedCount += buffer.appendedCount();
+        }
+        return appendedCount;
+    }
+
+    @Override
+    public long getNonCollapsibleCount() {
+        long nonCollapsibleCount = 0;
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            nonCollapsibleCount += buffer.nonCollapsibleCount();
+        }
+        return nonCollapsibleCount;
+    }
+
+    @Override
+    public long getExpiredCount() {
+        long expiredCount = 0;
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            expiredCount += buffer.expiredCount();
+        }
+        return expiredCount;
+    }
+
+    @Override
+    public double getHitRatio() {
+        long coalesced = getCoalescedCount();
+        long keyed = coalesced + getAppendedCount();
+        return keyed == 0 ? 0 : (double) coalesced / keyed;
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long entries = getAppendedCount() + getNonCollapsibleCount();
+        return entries == 0 ? 1 : (double) (entries + getCoalescedCount()) / entries;
+    }
+
+    @Override
+    public String[] getHotKeys() {
+        HotKeys[] hotKeys = new HotKeys[buffers.length];
+        int tracked = 0;
+
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            BufferInstrumentation instrumentation = buffer.instrumentation();
+            if (instrumentation != null && instrumentation.hotKeys() != null) {
+                hotKeys[tracked++] = instrumentation.hotKeys();
+            }
+        }
+
+        return HotKeys.snapshot(Arrays.copyOf(hotKeys, tracked));
+    }
+
+    @Override
+    public boolean isInstrumented() {
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            if (buffer.instrumentation() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getLatency50thPercentileNanos() {
+        return latency().valueAtPercentile(50);
+    }
+
+    @Override
+    public long getLatency99thPercentileNanos() {
+        return latency().valueAtPercentile(99);
+    }
+
+    @Override
+    public long getLatency999thPercentileNanos() {
+        return latency().valueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getLatencyMaxNanos() {
+        return latency().max();
+    }
+
+    @Override
+    public double getMeanBatchSize() {
+        return batchSize().mean();
+    }
+
+    @Override
+    public long getBatchSize99thPercentile() {
+        return batchSize().valueAtPercentile(99);
+    }
+
+    @Override
+    public long getMaxBatchSize() {
+        return batchSize().max();
+    }
+
+    private Histogram latency() {
+        if (!isInstrumented()) {
+            return EMPTY_HISTOGRAM;
+        }
+
+        if (buffers.length == 1) {
+            return buffers[0].instrumentation().offerToPollLatency();
+        }
+
+        Histogram latency = new Histogram();
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            if (buffer.instrumentation() != null) {
+                latency.add(buffer.instrumentation().offerToPollLatency());
+            }
+        }
+        return latency;
+    }
+
+    private Histogram batchSize() {
+        if (!isInstrumented()) {
+            return EMPTY_HISTOGRAM;
+        }
+
+        if (buffers.length == 1) {
+            return buffers[0].instrumentation().batchSize();
+        }
+
+        Histogram batchSize = new Histogram();
+        for (CoalescingRingBuffer<?, ?> buffer : buffers) {
+            if (buffer.instrumentation() != null) {
+                batchSize.add(buffer.instrumentation().batchSize());
+            }
+        }
+        return batchSize;
     }
 
     public static void register(String bufferName, CoalescingRingBuffer<?, ?> buffer, MBeanServer mBeanServer) throws JMException {
@@ -62,6 +247,12 @@ public class CoalescingRingBufferViewer implements CoalescingRingBufferViewerMBe
         mBeanServer.registerMBean(bean, name);
     }
 
+    public static void register(String bufferName, ShardedCoalescingBuffer<?, ?> buffer, MBeanServer mBeanServer) throws JMException {
+        ObjectName name = createObjectName(bufferName);
+        CoalescingRingBufferViewer bean = new CoalescingRingBufferViewer(buffer);
+        mBeanServer.registerMBean(bean, name);
+    }
+
     public static void unregister(String bufferName, MBeanServer mBeanServer) throws JMException {
         ObjectName name = createObjectName(bufferName);
         mBeanServer.unregisterMBean(name);
@@ -24,8 +24,66 @@ public interface CoalescingRingBufferViewerMBean {
 
     long getRejectionCount();
 
+    /**
+     * @return the producer index, or -1 for a sharded buffer as the shards' indices cannot be combined
+     */
     long getProducerIndex();
 
+    /**
+     * @return the consumer index, or -1 for a sharded buffer as the shards' indices cannot be combined
+     */
     long getConsumerIndex();
 
+    /**
+     * @return the producer index of every shard, or of the buffer if it is not sharded
+     */
+    long[] getProducerIndices();
+
+    /**
+     * @return the consumer index of every shard, or of the buffer if it is not sharded
+     */
+    long[] getConsumerIndices();
+
+    long getCoalescedCount();
+
+    long getAppendedCount();
+
+    long getNonCollapsibleCount();
+
+    /**
+     * @return the number of values dropped on poll because their deadline had passed
+     */
+    long getExpiredCount();
+
+    /**
+     * @return the fraction of keyed offers that updated a value already in the buffer
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of values offered for every entry added to the buffer
+     */
+    double getCompressionRatio();
+
+    String[] getHotKeys();
+
+    /**
+     * @return true if the buffer, or any of its shards, is instrumented
+     */
+    boolean isInstrumented();
+
+    long getLatency50thPercentileNanos();
+
+    long getLatency99thPercentileNanos();
+
+    long getLatency999thPercentileNanos();
+
+    long getLatencyMaxNanos();
+
+    double getMeanBatchSize();
+
+    long getBatchSize99thPercentile();
+
+    long getMaxBatchSize();
+
 }
\ No newline at end of file
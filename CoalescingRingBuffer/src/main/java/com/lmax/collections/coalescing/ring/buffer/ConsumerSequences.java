@@ -0,0 +1,24 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * The sequences and counters written by the consumer of a ring buffer
+ */
+abstract class ConsumerSequences extends ProducerPadding {
+    volatile long firstWrite = 1; // the oldest slot that is is safe to write to
+    volatile long lastRead = 0; // the newest slot that it is safe to overwrite
+    volatile long expiredCount = 0; // values dropped on poll as their deadline had passed
+}
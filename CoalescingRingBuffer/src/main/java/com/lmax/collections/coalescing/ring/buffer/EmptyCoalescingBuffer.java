@@ -66,4 +66,14 @@ public final class EmptyCoalescingBuffer<K, V> implements CoalescingBuffer<K, V>
         return 0;
     }
 
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return 0;
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        return 0;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parks the consumer until a producer hands it the first value offered to an empty buffer.
+ * No lock or monitor is held while waiting, so a consumer on a lightweight or virtual thread does not pin the thread beneath it,
+ * and producers only unpark the consumer when it has registered itself as waiting on an empty buffer.
+ * Only a single consumer may wait on the strategy at a time.
+ */
+public final class HandoffWaitStrategy implements WaitStrategy {
+    private final AtomicReference<Thread> waiter = new AtomicReference<Thread>();
+    private final AtomicLong wakeUpCount = new AtomicLong(0);
+
+    @Override
+    public boolean waitFor(CoalescingBuffer<?, ?> buffer, long timeoutNanos) throws InterruptedException {
+        if (!buffer.isEmpty()) {
+            return true;
+        }
+
+        Thread consumer = Thread.currentThread();
+        long start = System.nanoTime();
+
+        try {
+            while (true) {
+                // registering before checking again means a producer offering after the check will see us
+                waiter.set(consumer);
+
+                if (!buffer.isEmpty()) {
+                    return true;
+                }
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                long remaining = timeoutNanos - (System.nanoTime() - start);
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waiter.compareAndSet(consumer, null);
+        }
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+        // a consumer registers before it checks the buffer again, so one we do not see here will find the offer,
+        // and only a registered consumer is swapped out so offers to a busy consumer leave the line shared
+        if (waiter.get() == null) {
+            return;
+        }
+
+        Thread consumer = waiter.getAndSet(null);
+        if (consumer != null) {
+            wakeUpCount.incrementAndGet();
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * @return the number of times a producer has unparked a waiting consumer
+     */
+    public long wakeUpCount() {
+        return wakeUpCount.get();
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A fixed size log-linear histogram in the style of HdrHistogram, recording never allocates.
+ * Values are kept to within 1/32 of their size, about 3%, and it must only be recorded to by a single thread,
+ * although it may be read from any thread.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 6; // values lie in the top half of the sub buckets, each 1/32 of the value wide
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF_COUNT;
+
+    private static final AtomicLongFieldUpdater<Histogram> TOTAL_COUNT =
+            AtomicLongFieldUpdater.newUpdater(Histogram.class, "totalCount");
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private long totalValue;
+    private long maxValue;
+    private volatile long totalCount; // written last so that readers see the other fields at least as up to date
+
+    /**
+     * @param value the value to record, negative values are recorded as zero
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        int index = indexOf(value);
+        counts.lazySet(index, counts.get(index) + 1);
+
+        totalValue += value;
+        if (value > maxValue) {
+            maxValue = value;
+        }
+        TOTAL_COUNT.lazySet(this, totalCount + 1);
+    }
+
+    /**
+     * Record every value recorded by another histogram, for combining the histograms of several buffers
+     */
+    void add(Histogram other) {
+        long count = other.totalCount;
+
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            counts.lazySet(index, counts.get(index) + other.counts.get(index));
+        }
+
+        totalValue += other.totalValue;
+        if (other.maxValue > maxValue) {
+            maxValue = other.maxValue;
+        }
+        TOTAL_COUNT.lazySet(this, totalCount + count);
+    }
+
+    public long count() {
+        return totalCount;
+    }
+
+    public long max() {
+        return totalCount == 0 ? 0 : maxValue;
+    }
+
+    public double mean() {
+        long count = totalCount;
+        return count == 0 ? 0 : (double) totalValue / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value equivalent to the value at the given percentile or zero if nothing has been recorded
+     */
+    public long valueAtPercentile(double percentile) {
+        long count = totalCount;
+        if (count == 0) {
+            return 0;
+        }
+
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long runningCount = 0;
+
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            runningCount += counts.get(index);
+
+            if (runningCount >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(index), maxValue);
+            }
+        }
+
+        return maxValue;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // shift the value down so that it lies in the top half of the sub buckets
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * Approximately tracks the most frequently updated keys in a fixed amount of space using the space saving algorithm.
+ * When a key that is not tracked arrives and every counter is in use it replaces the least frequent key,
+ * inheriting its count, so counts are over estimates by at most the count of the key that was replaced.
+ * It must only be recorded to by a single thread, readers see an approximate snapshot.
+ */
+public final class HotKeys {
+    private final Object[] keys;
+    private final long[] counts;
+    private int size;
+
+    public HotKeys(int numberOfKeys) {
+        this.keys = new Object[numberOfKeys];
+        this.counts = new long[numberOfKeys];
+    }
+
+    public void record(Object key) {
+        int minIndex = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (key.equals(keys[i])) {
+                counts[i]++;
+                return;
+            }
+
+            if (counts[i] < counts[minIndex]) {
+                minIndex = i;
+            }
+        }
+
+        if (size < keys.length) {
+            keys[size] = key;
+            counts[size] = 1;
+            size++;
+        } else {
+            keys[minIndex] = key;
+            counts[minIndex]++;
+        }
+    }
+
+    /**
+     * @return the tracked keys and their counts as key=count, most frequent first
+     */
+    public String[] snapshot() {
+        return snapshot(this);
+    }
+
+    /**
+     * @return the keys tracked by all of the given instances and their counts as key=count, most frequent first
+     */
+    static String[] snapshot(HotKeys... hotKeys) {
+        int capacity = 0;
+        for (HotKeys tracked : hotKeys) {
+            capacity += tracked.keys.length;
+        }
+
+        Object[] keys = new Object[capacity];
+        long[] counts = new long[capacity];
+        int size = 0;
+
+        for (HotKeys tracked : hotKeys) {
+            for (int i = 0, trackedKeys = tracked.size; i < trackedKeys; i++) {
+                Object key = tracked.keys[i];
+
+                if (key != null) { // may not yet be visible to this thread
+                    keys[size] = key;
+                    counts[size] = tracked.counts[i];
+                    size++;
+                }
+            }
+        }
+
+        // insertion sort, there are only ever a handful of keys
+        for (int i = 1; i < size; i++) {
+            for (int j = i; j > 0 && counts[j] > counts[j - 1]; j--) {
+                long count = counts[j];
+                counts[j] = counts[j - 1];
+                counts[j - 1] = count;
+
+                Object key = keys[j];
+                keys[j] = keys[j - 1];
+                keys[j - 1] = key;
+            }
+        }
+
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = keys[i] + "=" + counts[i];
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,248 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static java.lang.Math.min;
+
+/**
+ * A coalescing ring buffer whose values are pre-allocated by a {@link SlotFactory} and written in place,
+ * so that in the steady state neither offering nor draining allocates.
+ * The producer claims the slot for a key, writes the value's fields and then publishes it,
+ * the consumer reads each value in place through a {@link ValueHandler}.
+ * A slot is only handed to the consumer once published and only rewritten by the producer before the consumer takes it,
+ * so a value is never read while it is being written.
+ */
+public final class InPlaceCoalescingRingBuffer<K, V> extends RingBufferSequences {
+
+    private static final int FREE = 0;
+    private static final int WRITING = 1;
+    private static final int PUBLISHED = 2;
+    private static final int TAKEN = 3;
+
+    private final K[] keys;
+    private final V[] values;
+    private final AtomicIntegerArray states;
+
+    private final KeyIndex keyIndex; // producer owned
+
+    @SuppressWarnings("unchecked")
+    private final K nonCollapsibleKey = (K) new Object();
+    private final int mask;
+    private final int capacity;
+
+    // producer owned state of the slot claimed but not yet published, claimedSequence is 0 for a coalescing hit
+    private int claimedIndex = -1;
+    private long claimedSequence;
+
+    @SuppressWarnings("unchecked")
+    public InPlaceCoalescingRingBuffer(int capacity, SlotFactory<? extends V> slotFactory) {
+        this.capacity = nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+
+        this.keys = (K[]) new Object[this.capacity];
+        this.values = (V[]) new Object[this.capacity];
+        this.states = new AtomicIntegerArray(this.capacity);
+
+        this.keyIndex = new KeyIndex(this.capacity);
+
+        for (int i = 0; i < this.capacity; i++) {
+            values[i] = slotFactory.newInstance();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long rejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * @return the number of keyed claims that rewrote a value already in the buffer
+     */
+    public long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of keyed claims that added a new entry to the buffer
+     */
+    public long appendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * @return the number of claims without a key that were added to the buffer
+     */
+    public long nonCollapsibleCount() {
+        return nonCollapsibleCount;
+    }
+
+    public long nextWrite() {
+        return nextWrite;
+    }
+
+    public long firstWrite() {
+        return firstWrite;
+    }
+
+    public boolean isEmpty() {
+        return firstWrite == nextWrite;
+    }
+
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    /**
+     * Claim the slot holding the pending value for the given key, or a new slot if the key has none.
+     * The returned value still holds whatever was last written to it and must be followed by {@link #publish()}.
+     *
+     * @param key the key on which to collapse the value
+     * @return the value to write in place or null if the buffer was full
+     */
+    public V claim(K key) {
+        int bucket = keyIndex.bucket(key);
+
+        for (long updatePosition = keyIndex.newest(bucket); updatePosition >= firstWrite; updatePosition = keyIndex.previous(updatePosition)) {
+            int index = mask(updatePosition);
+
+            if (key.equals(keys[index])) {
+                if (states.compareAndSet(index, PUBLISHED, WRITING)) {  // fails once the reader has taken the slot
+                    claimedIndex = index;
+                    claimedSequence = 0;
+                    return values[index];
+                } else {
+                    break;
+                }
+            }
+        }
+
+        return claimNext(key);
+    }
+
+    /**
+     * Claim a new slot for a value that will not be collapsed, which must be followed by {@link #publish()}
+     *
+     * @return the value to write in place or null if the buffer was full
+     */
+    public V claim() {
+        return claimNext(nonCollapsibleKey);
+    }
+
+    private V claimNext(K key) {
+        if (isFull()) {
+            REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+            return null;
+        }
+
+        cleanUp();
+
+        long nextWrite = this.nextWrite;
+        int index = mask(nextWrite);
+
+        keys[index] = key;
+        states.lazySet(index, WRITING);
+
+        claimedIndex = index;
+        claimedSequence = nextWrite;
+        return values[index];
+    }
+
+    /**
+     * Make the value returned by the last claim visible to the consumer
+     */
+    public void publish() {
+        int index = claimedIndex;
+        long sequence = claimedSequence;
+        claimedIndex = -1;
+
+        states.lazySet(index, PUBLISHED);
+
+        if (sequence == 0) {
+            COALESCED_COUNT.lazySet(this, coalescedCount + 1);
+            return;
+        }
+
+        NEXT_WRITE.lazySet(this, sequence + 1);
+
+        K key = keys[index];
+        if (key == nonCollapsibleKey) {
+            NON_COLLAPSIBLE_COUNT.lazySet(this, nonCollapsibleCount + 1);
+        } else {
+            keyIndex.index(keyIndex.bucket(key), sequence);
+            APPENDED_COUNT.lazySet(this, appendedCount + 1);
+        }
+    }
+
+    private void cleanUp() {
+        long lastRead = this.lastRead;
+
+        if (lastRead == lastCleaned) {
+            return;
+        }
+
+        while (lastCleaned < lastRead) {
+            int index = mask(++lastCleaned);
+            keys[index] = null;
+            states.lazySet(index, FREE);
+        }
+    }
+
+    /**
+     * Pass each pending value to the handler in place, a value must not be used after the handler returns
+     *
+     * @return the number of values drained
+     */
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return dispatch(handler, nextWrite);
+    }
+
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return dispatch(handler, claimUpTo);
+    }
+
+    private int dispatch(ValueHandler<? super K, ? super V> handler, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            take(index);
+
+            K key = keys[index];
+            handler.onValue(key == nonCollapsibleKey ? null : key, values[index], readIndex == claimUpTo - 1);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    private void take(int index) {
+        // the producer may still be rewriting a value it claimed before we moved firstWrite past it
+        while (!states.compareAndSet(index, PUBLISHED, TAKEN)) {
+            Thread.yield();
+        }
+    }
+
+    private int mask(long value) {
+        return ((int) value) & mask;
+    }
+
+}
@@ -0,0 +1,302 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.lang.Math.min;
+
+/**
+ * A coalescing buffer for a bounded set of keys that holds one value slot per key rather than a ring of entries,
+ * so that memory is fixed and an offer for a key that is already pending is a single store.
+ * Each key is given a slot the first time it is offered, up to the number of keys the buffer was created for,
+ * and a queue of dirty slots records the order in which keys became pending. A poll visits only the dirty keys.
+ * Offers for a key with a slot are never rejected. Values offered without a key are queued in order with the dirty keys
+ * and are rejected once the given number of them are waiting.
+ * A single producer thread may offer and a single consumer thread may poll.
+ */
+public final class KeyAddressedCoalescingBuffer<K, V> extends RingBufferSequences implements CoalescingBuffer<K, V> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<KeyAddressedCoalescingBuffer> NON_COLLAPSIBLE_READ =
+            AtomicLongFieldUpdater.newUpdater(KeyAddressedCoalescingBuffer.class, "nonCollapsibleRead");
+
+    private static final int NO_KEY = -1; // dirty queue entry for a value offered without a key
+
+    private final K[] keys;
+    private final AtomicReferenceArray<V> values;
+    private final AtomicIntegerArray dirty;
+
+    // a key is queued again if it is offered after the consumer has cleared its dirty flag but before it has moved past the entry,
+    // so each key takes at most two entries and values offered without a key take the rest
+    private final int[] queuedKeys;
+    private final AtomicReferenceArray<V> queuedValues;
+    private final int queueMask;
+
+    private final int numberOfKeys;
+    private final int nonCollapsibleCapacity;
+
+    // producer owned
+    private final Map<K, Integer> slots = new HashMap<K, Integer>();
+    private long nonCollapsibleWritten = 0;
+
+    private volatile long nonCollapsibleRead = 0;
+
+    public KeyAddressedCoalescingBuffer(int numberOfKeys) {
+        this(numberOfKeys, numberOfKeys);
+    }
+
+    /**
+     * @param numberOfKeys the number of distinct keys the buffer will hold a slot for
+     * @param nonCollapsibleCapacity the number of values offered without a key that may wait to be polled
+     */
+    @SuppressWarnings("unchecked")
+    public KeyAddressedCoalescingBuffer(int numberOfKeys, int nonCollapsibleCapacity) {
+        this.numberOfKeys = numberOfKeys;
+        this.nonCollapsibleCapacity = nonCollapsibleCapacity;
+
+        this.keys = (K[]) new Object[numberOfKeys];
+        this.values = new AtomicReferenceArray<V>(numberOfKeys);
+        this.dirty = new AtomicIntegerArray(numberOfKeys);
+
+        int queueCapacity = nextPowerOfTwo(2 * numberOfKeys + nonCollapsibleCapacity);
+        this.queuedKeys = new int[queueCapacity];
+        this.queuedValues = new AtomicReferenceArray<V>(queueCapacity);
+        this.queueMask = queueCapacity - 1;
+    }
+
+    /**
+     * @return the number of dirty queue entries waiting to be polled, a key queued twice is counted twice
+     */
+    @Override
+    public int size() {
+        return super.size();
+    }
+
+    /**
+     * @return the number of keys plus the number of values without a key that may wait to be polled
+     */
+    @Override
+    public int capacity() {
+        return numberOfKeys + nonCollapsibleCapacity;
+    }
+
+    public int numberOfKeys() {
+        return numberOfKeys;
+    }
+
+    public long rejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * @return the number of keyed offers that updated a value that was already pending
+     */
+    public long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of keyed offers that made their key pending
+     */
+    public long appendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * @return the number of offers without a key that were added to the buffer
+     */
+    public long nonCollapsibleCount() {
+        return nonCollapsibleCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return lastRead == nextWrite - 1;
+    }
+
+    /**
+     * @return true if no more values without a key may be offered, keys that have a slot may always be offered
+     */
+    @Override
+    public boolean isFull() {
+        return nonCollapsibleWritten - nonCollapsibleRead >= nonCollapsibleCapacity;
+    }
+
+    /**
+     * Add a value to be collapsed on the given key
+     *
+     * @param key the key on which to collapse the value
+     *        equality is determined by the equals method
+     * @return true if the value was added or false if the key is new and every slot has been given to another key
+     */
+    @Override
+    public boolean offer(K key, V value) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            if (slots.size() == numberOfKeys) {
+                REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+                return false;
+            }
+
+            slot = slots.size();
+            slots.put(key, slot);
+            keys[slot] = key;
+        }
+
+        int index = slot;
+        values.set(index, value);
+
+        // the consumer clears the flag before taking the value, so if it is still set the consumer will see our value
+        if (dirty.get(index) == 1) {
+            COALESCED_COUNT.lazySet(this, coalescedCount + 1);
+            return true;
+        }
+
+        dirty.lazySet(index, 1);
+        enqueue(index, null);
+        APPENDED_COUNT.lazySet(this, appendedCount + 1);
+        return true;
+    }
+
+    @Override
+    public boolean offer(V value) {
+        if (isFull()) {
+            REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+            return false;
+        }
+
+        nonCollapsibleWritten++;
+        enqueue(NO_KEY, value);
+        NON_COLLAPSIBLE_COUNT.lazySet(this, nonCollapsibleCount + 1);
+        return true;
+    }
+
+    private void enqueue(int keyIndex, V value) {
+        long nextWrite = this.nextWrite;
+        int index = mask(nextWrite);
+
+        queuedKeys[index] = keyIndex;
+        queuedValues.lazySet(index, value);
+
+        NEXT_WRITE.lazySet(this, nextWrite + 1);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return poll(bucket, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        long claimUpTo = nextWrite;
+        long readIndex = lastRead + 1;
+        long nonCollapsibleRead = this.nonCollapsibleRead;
+        int count = 0;
+
+        for (; readIndex < claimUpTo && count < maxItems; readIndex++) {
+            int index = mask(readIndex);
+            int keyIndex = queuedKeys[index];
+            V value;
+
+            if (keyIndex == NO_KEY) {
+                value = queuedValues.get(index);
+                queuedValues.lazySet(index, null);
+                nonCollapsibleRead++;
+            } else {
+                value = take(keyIndex);
+                if (value == null) {
+                    continue; // the key was queued again after we had already taken its value
+                }
+            }
+
+            bucket.add(value);
+            count++;
+        }
+
+        release(readIndex, nonCollapsibleRead);
+        return count;
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        long claimUpTo = nextWrite;
+        long readIndex = lastRead + 1;
+        long nonCollapsibleRead = this.nonCollapsibleRead;
+        int count = 0;
+
+        // hold each value back until the next is found as keys queued twice hide where the batch ends
+        K heldKey = null;
+        V heldValue = null;
+
+        for (; readIndex < claimUpTo && count < maxItems; readIndex++) {
+            int index = mask(readIndex);
+            int keyIndex = queuedKeys[index];
+            K key = null;
+            V value;
+
+            if (keyIndex == NO_KEY) {
+                value = queuedValues.get(index);
+                queuedValues.lazySet(index, null);
+                nonCollapsibleRead++;
+            } else {
+                value = take(keyIndex);
+                if (value == null) {
+                    continue;
+                }
+                key = keys[keyIndex];
+            }
+
+            if (count++ > 0) {
+                handler.onValue(heldKey, heldValue, false);
+            }
+            heldKey = key;
+            heldValue = value;
+        }
+
+        if (count > 0) {
+            handler.onValue(heldKey, heldValue, true);
+        }
+
+        release(readIndex, nonCollapsibleRead);
+        return count;
+    }
+
+    private V take(int keyIndex) {
+        dirty.set(keyIndex, 0);
+        return values.getAndSet(keyIndex, null);
+    }
+
+    private void release(long readIndex, long nonCollapsibleRead) {
+        // the producer only checks the non-collapsible count before writing, so free the queue slots first
+        LAST_READ.lazySet(this, readIndex - 1);
+        NON_COLLAPSIBLE_READ.lazySet(this, nonCollapsibleRead);
+    }
+
+    private int mask(long value) {
+        return ((int) value) & queueMask;
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * The producer owned index from key hash to the newest sequence stored in that bucket,
+ * with each slot of the ring linking to the previous sequence in the same bucket.
+ * Chains are ordered newest first so a search can stop at the first sequence the consumer has claimed,
+ * and as sequences start at 1 every chain ends at 0.
+ */
+final class KeyIndex {
+    private final long[] newest;
+    private final long[] links;
+    private final int mask;
+
+    /**
+     * @param capacity the capacity of the ring, a power of two
+     */
+    KeyIndex(int capacity) {
+        this.newest = new long[capacity];
+        this.links = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    int bucket(Object key) {
+        return spread(key.hashCode());
+    }
+
+    int bucket(long key) {
+        return spread((int) (key ^ (key >>> 32)));
+    }
+
+    private int spread(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    long newest(int bucket) {
+        return newest[bucket];
+    }
+
+    long previous(long sequence) {
+        return links[((int) sequence) & mask];
+    }
+
+    void index(int bucket, long sequence) {
+        links[((int) sequence) & mask] = newest[bucket];
+        newest[bucket] = sequence;
+    }
+
+}
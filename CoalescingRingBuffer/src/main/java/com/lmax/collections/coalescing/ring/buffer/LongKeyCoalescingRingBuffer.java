@@ -0,0 +1,260 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.lang.Math.min;
+
+/**
+ * A coalescing ring buffer specialised for primitive long keys,
+ * offering through {@link #offer(long, Object)} does not allocate and compares keys with ==.
+ * Draining to a {@link ValueHandler} boxes every key, drain to a {@link LongValueHandler} to avoid it.
+ */
+public final class LongKeyCoalescingRingBuffer<V> extends RingBufferSequences implements CoalescingBuffer<Long, V> {
+
+    private final long[] keys;
+    private final boolean[] collapsible;
+    private final AtomicReferenceArray<V> values;
+
+    // producer owned, non-collapsible values are never indexed so their key slots are never compared
+    private final KeyIndex keyIndex;
+
+    private final int mask;
+    private final int capacity;
+
+    public LongKeyCoalescingRingBuffer(int capacity) {
+        this.capacity = nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+
+        this.keys = new long[this.capacity];
+        this.collapsible = new boolean[this.capacity];
+        this.values = new AtomicReferenceArray<V>(this.capacity);
+
+        this.keyIndex = new KeyIndex(this.capacity);
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    public long rejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * @return the number of keyed offers that updated a value already in the buffer
+     */
+    public long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of keyed offers that added a new entry to the buffer
+     */
+    public long appendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * @return the number of offers without a key that were added to the buffer
+     */
+    public long nonCollapsibleCount() {
+        return nonCollapsibleCount;
+    }
+
+    public long nextWrite() {
+        return nextWrite;
+    }
+
+    public long firstWrite() {
+        return firstWrite;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstWrite == nextWrite;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    @Override
+    public boolean offer(Long key, V value) {
+        return offer(key.longValue(), value);
+    }
+
+    /**
+     * Add a value to be collapsed on the give key
+     *
+     * @param key the key on which to collapse the value
+     *        equality is determined by ==
+     * @return true if the value was added or false if the buffer was full
+     */
+    public boolean offer(long key, V value) {
+        int bucket = keyIndex.bucket(key);
+
+        for (long updatePosition = keyIndex.newest(bucket); updatePosition >= firstWrite; updatePosition = keyIndex.previous(updatePosition)) {
+            int index = mask(updatePosition);
+
+            if (key == keys[index]) {
+                values.set(index, value);
+
+                if (updatePosition >= firstWrite) {  // check that the reader has not read beyond our update point yet
+                    COALESCED_COUNT.lazySet(this, coalescedCount + 1);
+                    return true;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        long nextWrite = this.nextWrite;
+        if (!add(key, true, value)) {
+            return false;
+        }
+
+        keyIndex.index(bucket, nextWrite);
+        APPENDED_COUNT.lazySet(this, appendedCount + 1);
+        return true;
+    }
+
+    @Override
+    public boolean offer(V value) {
+        if (!add(0, false, value)) {
+            return false;
+        }
+
+        NON_COLLAPSIBLE_COUNT.lazySet(this, nonCollapsibleCount + 1);
+        return true;
+    }
+
+    private boolean add(long key, boolean collapsible, V value) {
+        if (isFull()) {
+            REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+            return false;
+        }
+
+        cleanUp();
+        store(key, collapsible, value);
+        return true;
+    }
+
+    private void cleanUp() {
+        long lastRead = this.lastRead;
+
+        if (lastRead == lastCleaned) {
+            return;
+        }
+
+        while (lastCleaned < lastRead) {
+            int index = mask(++lastCleaned);
+            values.lazySet(index, null);
+        }
+    }
+
+    private void store(long key, boolean collapsible, V value) {
+        long nextWrite = this.nextWrite;
+        int index = mask(nextWrite);
+
+        keys[index] = key;
+        this.collapsible[index] = collapsible;
+        values.set(index, value);
+
+        NEXT_WRITE.lazySet(this, nextWrite + 1);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return fill(bucket, nextWrite);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return fill(bucket, claimUpTo);
+    }
+
+    private int fill(Collection<? super V> bucket, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            bucket.add(values.get(index));
+            values.set(index, null);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super Long, ? super V> handler) {
+        return dispatch(handler, nextWrite);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super Long, ? super V> handler, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return dispatch(handler, claimUpTo);
+    }
+
+    public int drain(LongValueHandler<? super V> handler) {
+        return dispatch(handler, nextWrite);
+    }
+
+    public int drain(LongValueHandler<? super V> handler, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return dispatch(handler, claimUpTo);
+    }
+
+    private int dispatch(LongValueHandler<? super V> handler, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            handler.onValue(keys[index], collapsible[index], values.get(index), readIndex == claimUpTo - 1);
+            values.set(index, null);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    private int dispatch(ValueHandler<? super Long, ? super V> handler, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            handler.onValue(collapsible[index] ? keys[index] : null, values.get(index), readIndex == claimUpTo - 1);
+            values.set(index, null);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    private int mask(long value) {
+        return ((int) value) & mask;
+    }
+
+}
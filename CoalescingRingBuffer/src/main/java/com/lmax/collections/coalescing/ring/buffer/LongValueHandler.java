@@ -0,0 +1,31 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * Receives values drained in place from a long keyed coalescing buffer with the key as a primitive,
+ * so that draining does not box any key
+ */
+public interface LongValueHandler<V> {
+
+    /**
+     * @param key the key the value was collapsed on or 0 if the value was offered without a key
+     * @param hasKey false if the value was offered without a key
+     * @param value the value
+     * @param endOfBatch true if this is the last value of the current drain
+     */
+    void onValue(long key, boolean hasKey, V value, boolean endOfBatch);
+
+}
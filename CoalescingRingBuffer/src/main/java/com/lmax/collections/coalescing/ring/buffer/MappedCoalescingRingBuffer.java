@@ -0,0 +1,449 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Collection;
+
+import static java.lang.Math.min;
+
+/**
+ * A long keyed coalescing ring buffer held in a memory mapped file, so that a producer in one process
+ * and a consumer in another on the same host can exchange values without any system calls.
+ * Both processes open the same file with the same capacity and {@link RecordCodec},
+ * the first to open an empty file initialises it while any other process opening it waits.
+ * The sequences and record versions live in the file and are ordered by fences, a consumer decodes a record again
+ * if the producer rewrote it meanwhile, and the key index is private to the producing process so a restarted producer
+ * simply stops coalescing onto older entries.
+ * Draining decodes every record into the same flyweight instance, draining to a {@link LongValueHandler} rather than
+ * a {@link ValueHandler} also avoids boxing the keys.
+ * A restarted consumer is given again any value a previous consumer took but did not finish polling.
+ * Like {@link CoalescingRingBuffer} only one thread may offer and only one thread may poll, across all processes.
+ */
+public final class MappedCoalescingRingBuffer<V> implements CoalescingBuffer<Long, V>, Closeable {
+
+    // header layout, each sequence on its own pair of cache lines
+    private static final int CAPACITY_OFFSET = 0;
+    private static final int RECORD_LENGTH_OFFSET = 4;
+    private static final int NEXT_WRITE_OFFSET = 128;
+    private static final int FIRST_WRITE_OFFSET = 256;
+    private static final int LAST_READ_OFFSET = 384;
+    private static final int HEADER_LENGTH = 512;
+
+    // record layout
+    private static final int VERSION_OFFSET = 0; // odd while the producer rewrites the record in place
+    private static final int COLLAPSIBLE_OFFSET = 4;
+    private static final int KEY_OFFSET = 8;
+    private static final int PAYLOAD_OFFSET = 16;
+
+    // Java 6 has neither fences nor atomic operations on a buffer, but the JIT orders every memory access around a
+    // volatile one, the plain ByteBuffer reads and writes of the mapping included, so writing a volatile field is our
+    // store fence and full fence and reading one is our load fence, each side writing its own to keep them apart
+    private static volatile int loadFence; // never written
+    private final Fence producerFence = new Fence();
+    private final Fence consumerFence = new Fence();
+
+    private final MappedByteBuffer records; // must stay reachable for as long as the mapping is used
+    private final ByteBuffer consumerRecords; // the consumer's own view so the two sides never share buffer state
+    private final RecordCodec<V> codec;
+    private final int recordStride;
+
+    private final KeyIndex keyIndex; // producer owned
+
+    private final int mask;
+    private final int capacity;
+
+    private volatile long rejectionCount = 0;
+
+    private V flyweight; // consumer owned, created on the first drain
+    private boolean closed;
+
+    /**
+     * @throws IllegalArgumentException if the file was initialised with a different capacity or record length,
+     *         or the records would not fit in a single mapping of at most 2GB
+     */
+    public MappedCoalescingRingBuffer(File file, int capacity, RecordCodec<V> codec) throws IOException {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30 but was " + capacity);
+        }
+        this.capacity = RingBufferSequences.nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+
+        this.codec = codec;
+        this.recordStride = (PAYLOAD_OFFSET + codec.recordLength() + 7) & ~7; // keep every key 8 byte aligned
+
+        // checking the whole mapping fits an int is what lets every record offset be an int
+        long length = HEADER_LENGTH + (long) this.capacity * recordStride;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("a capacity of " + this.capacity + " records of " + recordStride +
+                    " bytes needs " + length + " bytes, more than a single mapping can hold");
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            this.records = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            initialise(channel, codec.recordLength());
+        } finally {
+            randomAccessFile.close();
+        }
+        this.consumerRecords = records.duplicate();
+
+        this.keyIndex = new KeyIndex(this.capacity);
+    }
+
+    private void initialise(FileChannel channel, int recordLength) throws IOException {
+        // holding a lock on the header means only one process resets the sequences of an empty file, file locks are
+        // held by the whole process so threads of this one also take the class monitor to open one at a time
+        synchronized (MappedCoalescingRingBuffer.class) {
+            FileLock lock = channel.lock(0, HEADER_LENGTH, false);
+            try {
+                int existingCapacity = records.getInt(CAPACITY_OFFSET);
+
+                if (existingCapacity == 0) {
+                    records.putInt(RECORD_LENGTH_OFFSET, recordLength);
+                    records.putLong(NEXT_WRITE_OFFSET, 1);
+                    records.putLong(FIRST_WRITE_OFFSET, 1);
+                    records.putLong(LAST_READ_OFFSET, 0);
+                    records.putInt(CAPACITY_OFFSET, capacity);
+                } else if (existingCapacity != capacity || records.getInt(RECORD_LENGTH_OFFSET) != recordLength) {
+                    throw new IllegalArgumentException("buffer was created with capacity " + existingCapacity +
+                            " and record length " + records.getInt(RECORD_LENGTH_OFFSET));
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+
+        // loop until you get a consistent read of both volatile indices
+        while (true) {
+            long lastReadBefore     = lastRead();
+            long currentNextWrite   = nextWrite();
+            long lastReadAfter      = lastRead();
+
+            if (lastReadBefore == lastReadAfter) {
+                return (int) (currentNextWrite - lastReadBefore) - 1;
+            }
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of offers rejected by this process
+     */
+    public long rejectionCount() {
+        return rejectionCount;
+    }
+
+    public long nextWrite() {
+        return getLongAcquire(NEXT_WRITE_OFFSET);
+    }
+
+    public long firstWrite() {
+        return getLongAcquire(FIRST_WRITE_OFFSET);
+    }
+
+    private long lastRead() {
+        return getLongAcquire(LAST_READ_OFFSET);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstWrite() == nextWrite();
+    }
+
+    @Override
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    @Override
+    public boolean offer(Long key, V value) {
+        return offer(key.longValue(), value);
+    }
+
+    /**
+     * Add a value to be collapsed on the give key
+     *
+     * @param key the key on which to collapse the value
+     *        equality is determined by ==
+     * @return true if the value was added or false if the buffer was full
+     */
+    public boolean offer(long key, V value) {
+        int bucket = keyIndex.bucket(key);
+
+        for (long updatePosition = keyIndex.newest(bucket); updatePosition >= firstWrite(); updatePosition = keyIndex.previous(updatePosition)) {
+            int record = recordOffset(mask(updatePosition));
+
+            if (key == records.getLong(record + KEY_OFFSET)) {
+                rewrite(record, value);
+
+                producerFence.write(); // the rewrite is seen by a consumer that claims after this check
+                if (updatePosition >= firstWrite()) {
+                    return true;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        long nextWrite = nextWrite();
+        if (!add(key, true, value)) {
+            return false;
+        }
+
+        keyIndex.index(bucket, nextWrite);
+        return true;
+    }
+
+    @Override
+    public boolean offer(V value) {
+        return add(0, false, value);
+    }
+
+    private boolean add(long key, boolean collapsible, V value) {
+        if (isFull()) {
+            rejectionCount++;
+            return false;
+        }
+
+        store(key, collapsible, value);
+        return true;
+    }
+
+    private void rewrite(int record, V value) {
+        int version = records.getInt(record + VERSION_OFFSET);
+
+        records.putInt(record + VERSION_OFFSET, version + 1);
+        producerFence.write();
+        codec.encode(value, records, record + PAYLOAD_OFFSET);
+        producerFence.write();
+        records.putInt(record + VERSION_OFFSET, version + 2);
+    }
+
+    private void store(long key, boolean collapsible, V value) {
+        long nextWrite = nextWrite();
+        int record = recordOffset(mask(nextWrite));
+
+        // an odd version left by a producer that stopped part way through a rewrite must not hold up the consumer
+        records.putInt(record + VERSION_OFFSET, (records.getInt(record + VERSION_OFFSET) + 1) & ~1);
+        records.putLong(record + KEY_OFFSET, key);
+        records.putInt(record + COLLAPSIBLE_OFFSET, collapsible ? 1 : 0);
+        codec.encode(value, records, record + PAYLOAD_OFFSET);
+
+        producerFence.write();
+        records.putLong(NEXT_WRITE_OFFSET, nextWrite + 1);
+    }
+
+    /**
+     * Decodes every value into a new instance from the codec, use {@link #drain(ValueHandler)} to avoid allocating
+     */
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return fill(bucket, nextWrite());
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        long claimUpTo = min(firstWrite() + maxItems, nextWrite());
+        return fill(bucket, claimUpTo);
+    }
+
+    private int fill(Collection<? super V> bucket, long claimUpTo) {
+        long lastRead = claim(claimUpTo);
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            V value = codec.newInstance();
+            read(recordOffset(mask(readIndex)), value);
+            bucket.add(value);
+        }
+
+        release(claimUpTo);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super Long, ? super V> handler) {
+        return dispatch(handler, nextWrite());
+    }
+
+    @Override
+    public int drain(ValueHandler<? super Long, ? super V> handler, int maxItems) {
+        long claimUpTo = min(firstWrite() + maxItems, nextWrite());
+        return dispatch(handler, claimUpTo);
+    }
+
+    public int drain(LongValueHandler<? super V> handler) {
+        return dispatch(handler, nextWrite());
+    }
+
+    public int drain(LongValueHandler<? super V> handler, int maxItems) {
+        long claimUpTo = min(firstWrite() + maxItems, nextWrite());
+        return dispatch(handler, claimUpTo);
+    }
+
+    private int dispatch(LongValueHandler<? super V> handler, long claimUpTo) {
+        long lastRead = claim(claimUpTo);
+
+        if (flyweight == null) {
+            flyweight = codec.newInstance();
+        }
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int record = recordOffset(mask(readIndex));
+            read(record, flyweight);
+
+            boolean collapsible = consumerRecords.getInt(record + COLLAPSIBLE_OFFSET) != 0;
+            handler.onValue(consumerRecords.getLong(record + KEY_OFFSET), collapsible, flyweight, readIndex == claimUpTo - 1);
+        }
+
+        release(claimUpTo);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    private int dispatch(ValueHandler<? super Long, ? super V> handler, long claimUpTo) {
+        long lastRead = claim(claimUpTo);
+
+        if (flyweight == null) {
+            flyweight = codec.newInstance();
+        }
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int record = recordOffset(mask(readIndex));
+            read(record, flyweight);
+
+            boolean collapsible = consumerRecords.getInt(record + COLLAPSIBLE_OFFSET) != 0;
+            handler.onValue(collapsible ? consumerRecords.getLong(record + KEY_OFFSET) : null, flyweight, readIndex == claimUpTo - 1);
+        }
+
+        release(claimUpTo);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    private long claim(long claimUpTo) {
+        consumerFence.write();
+        consumerRecords.putLong(FIRST_WRITE_OFFSET, claimUpTo);
+        consumerFence.write(); // a producer that rewrites a claimed record after this sees the claim and appends instead
+
+        return lastRead();
+    }
+
+    private void release(long claimUpTo) {
+        consumerFence.write();
+        consumerRecords.putLong(LAST_READ_OFFSET, claimUpTo - 1);
+    }
+
+    private void read(int record, V value) {
+        while (true) {
+            int version = getIntAcquire(record + VERSION_OFFSET);
+
+            if ((version & 1) == 0) {
+                codec.decode(consumerRecords, record + PAYLOAD_OFFSET, value);
+
+                if (getIntAcquire(record + VERSION_OFFSET) == version) {
+                    return;
+                }
+            }
+
+            // the producer may still be rewriting a record it matched before we moved firstWrite past it
+            Thread.yield();
+        }
+    }
+
+    private long getLongAcquire(int offset) {
+        long value = consumerRecords.getLong(offset);
+        int ignored = loadFence;
+        return value;
+    }
+
+    private int getIntAcquire(int offset) {
+        int ignored = loadFence; // the decode before a second read of the version stays before it
+        int value = consumerRecords.getInt(offset);
+        ignored = loadFence;
+        return value;
+    }
+
+    /**
+     * Unmap the file, after which this buffer must not be used by any thread of this process.
+     * The values in the file are kept for the other process and for reopening.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        unmap(records);
+    }
+
+    // the mapping is otherwise only released once the buffer is garbage collected, which might be never
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class); // Java 9 and later
+            invokeCleaner.invoke(field.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            } catch (Exception ignored) {
+                // left for the garbage collector to unmap
+            }
+        } catch (Exception ignored) {
+            // left for the garbage collector to unmap
+        }
+    }
+
+    private int recordOffset(int index) {
+        return HEADER_LENGTH + index * recordStride;
+    }
+
+    private int mask(long value) {
+        return ((int) value) & mask;
+    }
+
+    private static final class Fence {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+        private volatile int value;
+        protected long p9, p10, p11, p12, p13, p14, p15;
+
+        void write() {
+            value = 0;
+        }
+    }
+
+}
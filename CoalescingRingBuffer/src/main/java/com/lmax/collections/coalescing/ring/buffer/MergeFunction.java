@@ -0,0 +1,32 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * Combines a value still waiting in a {@link MergingCoalescingRingBuffer} with a newer value offered on the same key
+ */
+public interface MergeFunction<V> {
+
+    /**
+     * May be called more than once for the same update if the consumer races the producer,
+     * so implementations should return a new value rather than modify either argument
+     *
+     * @param pending the value waiting to be polled
+     * @param update the value being offered
+     * @return the value to poll in place of both
+     */
+    V merge(V pending, V update);
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.lang.Math.min;
+
+/**
+ * A coalescing ring buffer that combines a value offered on a key already in the buffer with the pending value
+ * using a {@link MergeFunction}, rather than replacing it.
+ * The merged value is published by CAS and the consumer takes each value by swapping it out of its slot,
+ * so every offer is either merged into a value the consumer has not yet taken or added as a new entry, never both.
+ */
+public final class MergingCoalescingRingBuffer<K, V> extends RingBufferSequences implements CoalescingBuffer<K, V> {
+
+    private static final Object TAKEN = new Object(); // value of a slot the consumer has already taken
+
+    private final K[] keys;
+    private final AtomicReferenceArray<Object> values;
+
+    private final KeyIndex keyIndex; // producer owned
+
+    private final MergeFunction<V> mergeFunction;
+
+    @SuppressWarnings("unchecked")
+    private final K nonCollapsibleKey = (K) new Object();
+    private final int mask;
+    private final int capacity;
+
+    @SuppressWarnings("unchecked")
+    public MergingCoalescingRingBuffer(int capacity, MergeFunction<V> mergeFunction) {
+        this.capacity = nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+
+        this.keys = (K[]) new Object[this.capacity];
+        this.values = new AtomicReferenceArray<Object>(this.capacity);
+
+        this.keyIndex = new KeyIndex(this.capacity);
+
+        this.mergeFunction = mergeFunction;
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    public long rejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * @return the number of keyed offers that were merged into a value already in the buffer
+     */
+    public long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of keyed offers that added a new entry to the buffer
+     */
+    public long appendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * @return the number of offers without a key that were added to the buffer
+     */
+    public long nonCollapsibleCount() {
+        return nonCollapsibleCount;
+    }
+
+    public long nextWrite() {
+        return nextWrite;
+    }
+
+    public long firstWrite() {
+        return firstWrite;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstWrite == nextWrite;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    @Override
+    public boolean offer(K key, V value) {
+        int bucket = keyIndex.bucket(key);
+
+        for (long updatePosition = keyIndex.newest(bucket); updatePosition >= firstWrite; updatePosition = keyIndex.previous(updatePosition)) {
+            int index = mask(updatePosition);
+
+            if (key.equals(keys[index])) {
+                if (merge(index, value)) {
+                    COALESCED_COUNT.lazySet(this, coalescedCount + 1);
+                    return true;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        long nextWrite = this.nextWrite;
+        if (!add(key, value)) {
+            return false;
+        }
+
+        keyIndex.index(bucket, nextWrite);
+        APPENDED_COUNT.lazySet(this, appendedCount + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean merge(int index, V value) {
+        while (true) {
+            Object pending = values.get(index);
+
+            if (pending == TAKEN) {
+                return false;
+            }
+
+            if (values.compareAndSet(index, pending, mergeFunction.merge((V) pending, value))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(V value) {
+        if (!add(nonCollapsibleKey, value)) {
+            return false;
+        }
+
+        NON_COLLAPSIBLE_COUNT.lazySet(this, nonCollapsibleCount + 1);
+        return true;
+    }
+
+    private boolean add(K key, V value) {
+        if (isFull()) {
+            REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+            return false;
+        }
+
+        cleanUp();
+        store(key, value);
+        return true;
+    }
+
+    private void cleanUp() {
+        long lastRead = this.lastRead;
+
+        if (lastRead == lastCleaned) {
+            return;
+        }
+
+        while (lastCleaned < lastRead) {
+            int index = mask(++lastCleaned);
+            keys[index] = null;
+            values.lazySet(index, null);
+        }
+    }
+
+    private void store(K key, V value) {
+        long nextWrite = this.nextWrite;
+        int index = mask(nextWrite);
+
+        keys[index] = key;
+        values.set(index, value);
+
+        NEXT_WRITE.lazySet(this, nextWrite + 1);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return fill(bucket, nextWrite);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return fill(bucket, claimUpTo);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int fill(Collection<? super V> bucket, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            bucket.add((V) values.getAndSet(mask(readIndex), TAKEN));
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return dispatch(handler, nextWrite);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return dispatch(handler, claimUpTo);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int dispatch(ValueHandler<? super K, ? super V> handler, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            K key = keys[index];
+            V value = (V) values.getAndSet(index, TAKEN);
+            handler.onValue(key == nonCollapsibleKey ? null : key, value, readIndex == claimUpTo - 1);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    private int mask(long value) {
+        return ((int) value) & mask;
+    }
+
+}
@@ -0,0 +1,268 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.lang.Math.min;
+
+/**
+ * A coalescing ring buffer with a single producer that may be polled by many consumer threads sharing the work.
+ * Each poll claims a disjoint batch by CAS on the consumer index, so values for the same key that land in
+ * different batches may be processed out of order by different consumers.
+ * Batches may finish in any order, a consumer never waits for another to finish its batch,
+ * and slots are handed back to the producer as soon as every earlier batch has finished too.
+ */
+public final class MultiConsumerCoalescingRingBuffer<K, V> extends RingBufferSequences implements CoalescingBuffer<K, V> {
+
+    private final K[] keys;
+    private final AtomicReferenceArray<V> values;
+
+    // the end of each finished batch, stored at the slot the batch starts from until the batch is released
+    private final AtomicLongArray batchEnds;
+
+    private final KeyIndex keyIndex; // producer owned
+
+    @SuppressWarnings("unchecked")
+    private final K nonCollapsibleKey = (K) new Object();
+    private final int mask;
+    private final int capacity;
+
+    @SuppressWarnings("unchecked")
+    public MultiConsumerCoalescingRingBuffer(int capacity) {
+        this.capacity = nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+
+        this.keys = (K[]) new Object[this.capacity];
+        this.values = new AtomicReferenceArray<V>(this.capacity);
+        this.batchEnds = new AtomicLongArray(this.capacity);
+
+        this.keyIndex = new KeyIndex(this.capacity);
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    public long rejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * @return the number of keyed offers that updated a value already in the buffer
+     */
+    public long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of keyed offers that added a new entry to the buffer
+     */
+    public long appendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * @return the number of offers without a key that were added to the buffer
+     */
+    public long nonCollapsibleCount() {
+        return nonCollapsibleCount;
+    }
+
+    public long nextWrite() {
+        return nextWrite;
+    }
+
+    public long firstWrite() {
+        return firstWrite;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstWrite == nextWrite;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    @Override
+    public boolean offer(K key, V value) {
+        int bucket = keyIndex.bucket(key);
+
+        for (long updatePosition = keyIndex.newest(bucket); updatePosition >= firstWrite; updatePosition = keyIndex.previous(updatePosition)) {
+            int index = mask(updatePosition);
+
+            if(key.equals(keys[index])) {
+                values.set(index, value);
+
+                if (updatePosition >= firstWrite) {  // check that the reader has not read beyond our update point yet
+                    COALESCED_COUNT.lazySet(this, coalescedCount + 1);
+                    return true;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        long nextWrite = this.nextWrite;
+        if (!add(key, value)) {
+            return false;
+        }
+
+        keyIndex.index(bucket, nextWrite);
+        APPENDED_COUNT.lazySet(this, appendedCount + 1);
+        return true;
+    }
+
+    @Override
+    public boolean offer(V value) {
+        if (!add(nonCollapsibleKey, value)) {
+            return false;
+        }
+
+        NON_COLLAPSIBLE_COUNT.lazySet(this, nonCollapsibleCount + 1);
+        return true;
+    }
+
+    private boolean add(K key, V value) {
+        if (isFull()) {
+            REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+            return false;
+        }
+
+        cleanUp();
+        store(key, value);
+        return true;
+    }
+
+    private void cleanUp() {
+        long lastRead = this.lastRead;
+
+        if (lastRead == lastCleaned) {
+            return;
+        }
+
+        while (lastCleaned < lastRead) {
+            int index = mask(++lastCleaned);
+            keys[index] = null;
+            values.lazySet(index, null);
+        }
+    }
+
+    private void store(K key, V value) {
+        long nextWrite = this.nextWrite;
+        int index = mask(nextWrite);
+
+        keys[index] = key;
+        values.set(index, value);
+
+        NEXT_WRITE.lazySet(this, nextWrite + 1);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return poll(bucket, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        long claimFrom;
+        long claimUpTo;
+
+        do {
+            claimFrom = firstWrite;
+            claimUpTo = min(claimFrom + maxItems, nextWrite);
+
+            if (claimFrom == claimUpTo) {
+                return 0;
+            }
+        } while (!FIRST_WRITE.compareAndSet(this, claimFrom, claimUpTo));
+
+        return fill(bucket, claimFrom, claimUpTo);
+    }
+
+    private int fill(Collection<? super V> bucket, long claimFrom, long claimUpTo) {
+        for (long readIndex = claimFrom; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            bucket.add(values.get(index));
+            values.set(index, null);
+        }
+
+        release(claimFrom, claimUpTo);
+        return (int) (claimUpTo - claimFrom);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        long claimFrom;
+        long claimUpTo;
+
+        do {
+            claimFrom = firstWrite;
+            claimUpTo = min(claimFrom + maxItems, nextWrite);
+
+            if (claimFrom == claimUpTo) {
+                return 0;
+            }
+        } while (!FIRST_WRITE.compareAndSet(this, claimFrom, claimUpTo));
+
+        return dispatch(handler, claimFrom, claimUpTo);
+    }
+
+    private int dispatch(ValueHandler<? super K, ? super V> handler, long claimFrom, long claimUpTo) {
+        for (long readIndex = claimFrom; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            K key = keys[index];
+            handler.onValue(key == nonCollapsibleKey ? null : key, values.get(index), readIndex == claimUpTo - 1);
+            values.set(index, null);
+        }
+
+        release(claimFrom, claimUpTo);
+        return (int) (claimUpTo - claimFrom);
+    }
+
+    private void release(long claimFrom, long claimUpTo) {
+        batchEnds.set(mask(claimFrom), claimUpTo);
+
+        // release every finished batch that follows the last released slot, ours included once the batches before it finish,
+        // a batch finishing while another consumer releases is either seen by it or sees the new last read itself
+        while (true) {
+            long lastRead = this.lastRead;
+            long batchEnd = batchEnds.get(mask(lastRead + 1));
+
+            // a batch end left from an earlier pass round the ring is never beyond the slot it started from
+            if (batchEnd <= lastRead + 1) {
+                return;
+            }
+
+            LAST_READ.compareAndSet(this, lastRead, batchEnd - 1);
+        }
+    }
+
+    private int mask(long value) {
+        return ((int) value) & mask;
+    }
+
+}
\ No newline at end of file
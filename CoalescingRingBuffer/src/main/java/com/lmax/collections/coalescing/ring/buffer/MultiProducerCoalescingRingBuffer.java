@@ -0,0 +1,299 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import static java.lang.Math.min;
+
+/**
+ * A coalescing ring buffer that may be offered to from many producer threads but polled by only one consumer.
+ * Producers claim slots by CAS on the write index, pending values for a key are held in a single entry
+ * that concurrent producers update by CAS until the consumer takes it.
+ */
+public final class MultiProducerCoalescingRingBuffer<K, V> implements CoalescingBuffer<K, V> {
+
+    private static final Object TAKEN = new Object(); // value of an entry the consumer has already taken
+    private static final Entry<Object> SKIP = new Entry<Object>(null, null); // fills a claimed slot whose value was coalesced elsewhere
+
+    private final AtomicLong nextWrite = new AtomicLong(1); // the next index to be claimed by a producer
+    private final AtomicLong rejectionCount = new AtomicLong(0);
+    private final AtomicReferenceArray<Entry<K>> entries;
+    private final ConcurrentMap<K, Entry<K>> pending = new ConcurrentHashMap<K, Entry<K>>();
+
+    private final int mask;
+    private final int capacity;
+
+    private final AtomicLong lastRead = new AtomicLong(0); // the newest slot that it is safe to overwrite
+
+    public MultiProducerCoalescingRingBuffer(int capacity) {
+        this.capacity = RingBufferSequences.nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+
+        this.entries = new AtomicReferenceArray<Entry<K>>(this.capacity);
+    }
+
+    /**
+     * @return the current size of the buffer including any slots claimed but not yet published
+     */
+    @Override
+    public int size() {
+
+        // loop until you get a consistent read of both volatile indices
+        while (true) {
+            long lastReadBefore     = lastRead.get();
+            long currentNextWrite   = this.nextWrite.get();
+            long lastReadAfter      = lastRead.get();
+
+            if (lastReadBefore == lastReadAfter) {
+                return (int) (currentNextWrite - lastReadBefore) - 1;
+            }
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    public long rejectionCount() {
+        return rejectionCount.get();
+    }
+
+    public long nextWrite() {
+        return nextWrite.get();
+    }
+
+    public long firstWrite() {
+        return lastRead.get() + 1;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    @Override
+    public boolean offer(K key, V value) {
+        long claimed = 0;
+        Entry<K> entry = null;
+
+        while (true) {
+            Entry<K> existing = pending.get(key);
+
+            if (existing != null) {
+                if (existing.update(value)) {
+                    if (claimed != 0) {
+                        publish(claimed, skip());
+                    }
+                    return true;
+                }
+
+                pending.remove(key, existing); // help the consumer retire an entry it has taken
+                continue;
+            }
+
+            if (claimed == 0) {
+                claimed = claim();
+                if (claimed == 0) {
+                    return false;
+                }
+                entry = new Entry<K>(key, value);
+            }
+
+            if (pending.putIfAbsent(key, entry) == null) {
+                publish(claimed, entry);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(V value) {
+        long claimed = claim();
+        if (claimed == 0) {
+            return false;
+        }
+
+        publish(claimed, new Entry<K>(null, value));
+        return true;
+    }
+
+    private long claim() {
+        while (true) {
+            long nextWrite = this.nextWrite.get();
+
+            if (nextWrite - lastRead.get() - 1 >= capacity) {
+                rejectionCount.incrementAndGet();
+                return 0;
+            }
+
+            if (this.nextWrite.compareAndSet(nextWrite, nextWrite + 1)) {
+                return nextWrite;
+            }
+        }
+    }
+
+    private void publish(long sequence, Entry<K> entry) {
+        entries.lazySet(mask(sequence), entry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Entry<K> skip() {
+        return (Entry<K>) (Entry<?>) SKIP;
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return fill(bucket, nextWrite.get());
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        long claimUpTo = min(lastRead.get() + 1 + maxItems, nextWrite.get());
+        return fill(bucket, claimUpTo);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int fill(Collection<? super V> bucket, long claimUpTo) {
+        long readIndex = this.lastRead.get() + 1;
+        int count = 0;
+
+        for (; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            Entry<K> entry = entries.get(index);
+
+            if (entry == null) {
+                break; // claimed but not yet published, stop here to preserve ordering
+            }
+            entries.lazySet(index, null);
+
+            if (entry == SKIP) {
+                continue;
+            }
+
+            Object value = entry.take();
+            if (entry.key != null) {
+                pending.remove(entry.key, entry);
+            }
+
+            bucket.add((V) value);
+            count++;
+        }
+
+        this.lastRead.lazySet(readIndex - 1);
+        return count;
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return dispatch(handler, nextWrite.get());
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        long claimUpTo = min(lastRead.get() + 1 + maxItems, nextWrite.get());
+        return dispatch(handler, claimUpTo);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int dispatch(ValueHandler<? super K, ? super V> handler, long claimUpTo) {
+        long readIndex = this.lastRead.get() + 1;
+        int count = 0;
+
+        // hold each value back until the next is found as skipped and unpublished slots hide where the batch ends
+        K heldKey = null;
+        Object heldValue = null;
+
+        for (; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            Entry<K> entry = entries.get(index);
+
+            if (entry == null) {
+                break; // claimed but not yet published, stop here to preserve ordering
+            }
+            entries.lazySet(index, null);
+
+            if (entry == SKIP) {
+                continue;
+            }
+
+            Object value = entry.take();
+            if (entry.key != null) {
+                pending.remove(entry.key, entry);
+            }
+
+            if (count++ > 0) {
+                handler.onValue(heldKey, (V) heldValue, false);
+            }
+            heldKey = entry.key;
+            heldValue = value;
+        }
+
+        if (count > 0) {
+            handler.onValue(heldKey, (V) heldValue, true);
+        }
+
+        this.lastRead.lazySet(readIndex - 1);
+        return count;
+    }
+
+    private int mask(long value) {
+        return ((int) value) & mask;
+    }
+
+    private static final class Entry<K> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Entry, Object> VALUE =
+                AtomicReferenceFieldUpdater.newUpdater(Entry.class, Object.class, "value");
+
+        private final K key;
+        private volatile Object value;
+
+        private Entry(K key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        private boolean update(Object newValue) {
+            while (true) {
+                Object currentValue = value;
+
+                if (currentValue == TAKEN) {
+                    return false;
+                }
+
+                if (VALUE.compareAndSet(this, currentValue, newValue)) {
+                    return true;
+                }
+            }
+        }
+
+        private Object take() {
+            return VALUE.getAndSet(this, TAKEN);
+        }
+    }
+
+}
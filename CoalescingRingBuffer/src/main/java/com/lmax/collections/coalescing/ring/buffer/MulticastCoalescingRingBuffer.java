@@ -0,0 +1,359 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.lmax.collections.coalescing.ring.buffer.RingBufferSequences.APPENDED_COUNT;
+import static com.lmax.collections.coalescing.ring.buffer.RingBufferSequences.COALESCED_COUNT;
+import static com.lmax.collections.coalescing.ring.buffer.RingBufferSequences.NEXT_WRITE;
+import static com.lmax.collections.coalescing.ring.buffer.RingBufferSequences.NON_COLLAPSIBLE_COUNT;
+import static com.lmax.collections.coalescing.ring.buffer.RingBufferSequences.REJECTION_COUNT;
+import static java.lang.Math.min;
+
+/**
+ * A coalescing ring buffer that a single producer writes to once for any number of subscribers,
+ * each of which polls from its own cursor on its own thread.
+ * The producer updates a pending value in place while no subscriber has claimed it, once one has it appends a new entry
+ * and marks the older entry as superseded, so a subscriber skips any entry superseded within the batch it is polling.
+ * A subscriber that falls behind therefore polls bigger batches and sees fewer intermediate values, while one that keeps up sees more of them.
+ * The producer is only held back, by rejecting offers, when the slowest subscriber is a whole buffer behind.
+ * Subscribers must all subscribe before the producer starts offering.
+ */
+public final class MulticastCoalescingRingBuffer<K, V> extends ProducerPadding {
+
+    private final K[] keys;
+    private final AtomicReferenceArray<V> values;
+    private final AtomicLongArray supersededBy; // the sequence of a newer entry for the same key, or 0 if there is none yet
+
+    private final KeyIndex keyIndex; // producer owned
+
+    @SuppressWarnings("unchecked")
+    private final K nonCollapsibleKey = (K) new Object();
+    private final int mask;
+    private final int capacity;
+    private final Runnable beforePublish; // null outside of tests that stop the producer just before it publishes an entry
+
+    private volatile Subscriber<K, V>[] subscribers = newSubscribers(0);
+    private long minimumLastRead = 0; // producer owned, the slowest subscriber's lastRead when last checked
+
+    public MulticastCoalescingRingBuffer(int capacity) {
+        this(capacity, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    MulticastCoalescingRingBuffer(int capacity, Runnable beforePublish) {
+        this.beforePublish = beforePublish;
+        this.capacity = RingBufferSequences.nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+
+        this.keys = (K[]) new Object[this.capacity];
+        this.values = new AtomicReferenceArray<V>(this.capacity);
+        this.supersededBy = new AtomicLongArray(this.capacity);
+
+        this.keyIndex = new KeyIndex(this.capacity);
+    }
+
+    /**
+     * @return a new subscriber that will see every value offered from now on
+     */
+    public synchronized Subscriber<K, V> subscribe() {
+        Subscriber<K, V> subscriber = new Subscriber<K, V>(this, nextWrite);
+
+        Subscriber<K, V>[] subscribers = this.subscribers;
+        Subscriber<K, V>[] newSubscribers = newSubscribers(subscribers.length + 1);
+        System.arraycopy(subscribers, 0, newSubscribers, 0, subscribers.length);
+        newSubscribers[subscribers.length] = subscriber;
+
+        this.subscribers = newSubscribers;
+        return subscriber;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Subscriber<K, V>[] newSubscribers(int length) {
+        return (Subscriber<K, V>[]) new Subscriber<?, ?>[length];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long rejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * @return the number of keyed offers that updated a value no subscriber had polled yet
+     */
+    public long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of keyed offers that added a new entry to the buffer
+     */
+    public long appendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * @return the number of offers without a key that were added to the buffer
+     */
+    public long nonCollapsibleCount() {
+        return nonCollapsibleCount;
+    }
+
+    public long nextWrite() {
+        return nextWrite;
+    }
+
+    /**
+     * Add a value to be collapsed on the give key
+     *
+     * @param key the key on which to collapse the value
+     *        equality is determined by the key's equals method
+     * @return true if the value was added or false if the slowest subscriber is a whole buffer behind
+     */
+    public boolean offer(K key, V value) {
+        int bucket = keyIndex.bucket(key);
+        long firstWrite = maximumFirstWrite();
+        long supersede = 0;
+
+        // chains are ordered newest first so we can stop at the first sequence every subscriber has finished with
+        for (long updatePosition = keyIndex.newest(bucket); updatePosition > minimumLastRead; updatePosition = keyIndex.previous(updatePosition)) {
+            int index = mask(updatePosition);
+
+            if (key.equals(keys[index])) {
+                if (updatePosition >= firstWrite) {
+                    values.set(index, value);
+
+                    if (updatePosition >= maximumFirstWrite()) {  // check that no subscriber has read beyond our update point yet
+                        COALESCED_COUNT.lazySet(this, coalescedCount + 1);
+                        return true;
+                    }
+                }
+
+                supersede = updatePosition; // still to be polled by some subscriber
+                break;
+            }
+        }
+
+        long nextWrite = this.nextWrite;
+        if (!add(key, value, supersede)) {
+            return false;
+        }
+
+        keyIndex.index(bucket, nextWrite);
+        APPENDED_COUNT.lazySet(this, appendedCount + 1);
+        return true;
+    }
+
+    /**
+     * Add a value that will never be collapsed
+     *
+     * @return true if the value was added or false if the slowest subscriber is a whole buffer behind
+     */
+    public boolean offer(V value) {
+        if (!add(nonCollapsibleKey, value, 0)) {
+            return false;
+        }
+
+        NON_COLLAPSIBLE_COUNT.lazySet(this, nonCollapsibleCount + 1);
+        return true;
+    }
+
+    private long maximumFirstWrite() {
+        long firstWrite = 0;
+        for (Subscriber<K, V> subscriber : subscribers) {
+            firstWrite = Math.max(firstWrite, subscriber.firstWrite);
+        }
+        return firstWrite;
+    }
+
+    private boolean add(K key, V value, long supersede) {
+        if (isFull()) {
+            REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+            return false;
+        }
+
+        cleanUp();
+        store(key, value, supersede);
+        return true;
+    }
+
+    private boolean isFull() {
+        if (nextWrite - minimumLastRead - 1 < capacity) {
+            return false;
+        }
+
+        // only look at the subscribers again once the cached position says we are full
+        long lastRead = Long.MAX_VALUE;
+        for (Subscriber<K, V> subscriber : subscribers) {
+            lastRead = min(lastRead, subscriber.lastRead);
+        }
+        minimumLastRead = lastRead == Long.MAX_VALUE ? nextWrite - 1 : lastRead;
+
+        return nextWrite - minimumLastRead - 1 >= capacity;
+    }
+
+    private void cleanUp() {
+        long lastRead = minimumLastRead;
+
+        if (lastRead <= lastCleaned) {
+            return;
+        }
+
+        while (lastCleaned < lastRead) {
+            int index = mask(++lastCleaned);
+            keys[index] = null;
+            values.lazySet(index, null);
+        }
+    }
+
+    private void store(K key, V value, long supersede) {
+        long nextWrite = this.nextWrite;
+        int index = mask(nextWrite);
+
+        keys[index] = key;
+        supersededBy.lazySet(index, 0);
+        values.set(index, value);
+
+        // mark the older entry before publishing this one so no subscriber can claim both in one batch without skipping it
+        if (supersede != 0) {
+            supersededBy.lazySet(mask(supersede), nextWrite);
+        }
+        if (beforePublish != null) {
+            beforePublish.run();
+        }
+
+        NEXT_WRITE.lazySet(this, nextWrite + 1);
+    }
+
+    private int mask(long value) {
+        return ((int) value) & mask;
+    }
+
+    /**
+     * A single consumer's view of a {@link MulticastCoalescingRingBuffer}, which must only be polled by one thread
+     */
+    public static final class Subscriber<K, V> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<Subscriber> LAST_READ =
+                AtomicLongFieldUpdater.newUpdater(Subscriber.class, "lastRead");
+
+        private final MulticastCoalescingRingBuffer<K, V> buffer;
+        private volatile long firstWrite; // the oldest entry this subscriber has not yet claimed
+        private volatile long lastRead; // the newest entry this subscriber has finished with
+        private long skippedCount = 0;
+
+        private Subscriber(MulticastCoalescingRingBuffer<K, V> buffer, long nextWrite) {
+            this.buffer = buffer;
+            this.firstWrite = nextWrite;
+            this.lastRead = nextWrite - 1;
+        }
+
+        /**
+         * @return the number of entries waiting for this subscriber, including any it will skip as superseded
+         */
+        public int size() {
+            return (int) (buffer.nextWrite - firstWrite);
+        }
+
+        public boolean isEmpty() {
+            return firstWrite == buffer.nextWrite;
+        }
+
+        /**
+         * @return the number of entries this subscriber skipped because a newer value for the key was in the same batch
+         */
+        public long skippedCount() {
+            return skippedCount;
+        }
+
+        public int poll(Collection<? super V> bucket) {
+            return fill(bucket, buffer.nextWrite);
+        }
+
+        public int poll(Collection<? super V> bucket, int maxItems) {
+            long claimUpTo = min(firstWrite + maxItems, buffer.nextWrite);
+            return fill(bucket, claimUpTo);
+        }
+
+        private int fill(Collection<? super V> bucket, long claimUpTo) {
+            firstWrite = claimUpTo;
+            long lastRead = this.lastRead;
+            int count = 0;
+
+            for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+                int index = buffer.mask(readIndex);
+
+                if (isSuperseded(index, claimUpTo)) {
+                    continue;
+                }
+
+                bucket.add(buffer.values.get(index));
+                count++;
+            }
+
+            LAST_READ.lazySet(this, claimUpTo - 1);
+            return count;
+        }
+
+        public int drain(ValueHandler<? super K, ? super V> handler) {
+            return dispatch(handler, buffer.nextWrite);
+        }
+
+        public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+            long claimUpTo = min(firstWrite + maxItems, buffer.nextWrite);
+            return dispatch(handler, claimUpTo);
+        }
+
+        private int dispatch(ValueHandler<? super K, ? super V> handler, long claimUpTo) {
+            firstWrite = claimUpTo;
+            long lastRead = this.lastRead;
+            int count = 0;
+
+            // the last entry of a batch can never be superseded within it so it always carries the end of batch flag
+            for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+                int index = buffer.mask(readIndex);
+
+                if (isSuperseded(index, claimUpTo)) {
+                    continue;
+                }
+
+                K key = buffer.keys[index];
+                handler.onValue(key == buffer.nonCollapsibleKey ? null : key, buffer.values.get(index), readIndex == claimUpTo - 1);
+                count++;
+            }
+
+            LAST_READ.lazySet(this, claimUpTo - 1);
+            return count;
+        }
+
+        private boolean isSuperseded(int index, long claimUpTo) {
+            long supersededBy = buffer.supersededBy.get(index);
+
+            if (supersededBy != 0 && supersededBy < claimUpTo) {
+                skippedCount++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,321 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static java.lang.Math.min;
+
+/**
+ * A long keyed coalescing ring buffer that stores each entry as a fixed length binary record in a direct ByteBuffer,
+ * so that even a very large buffer adds no object references for the garbage collector to trace.
+ * Values are copied in and out by a {@link RecordCodec}, offering does not allocate and
+ * {@link #drain(LongValueHandler)} decodes every record into the same flyweight instance, which must not be used after the handler returns.
+ * Draining to a {@link ValueHandler} uses the same flyweight but boxes every key.
+ * A slot is only rewritten by a coalescing offer before the consumer takes it, so a record is never read while it is being written.
+ */
+public final class OffHeapCoalescingRingBuffer<V> extends RingBufferSequences implements CoalescingBuffer<Long, V> {
+
+    private static final int KEY_LENGTH = 8;
+
+    private static final int FREE = 0;
+    private static final int WRITING = 1;
+    private static final int PUBLISHED = 2;
+    private static final int TAKEN = 3;
+
+    private final ByteBuffer records;
+    private final ByteBuffer consumerRecords; // the consumer's own view so the two sides never share buffer state
+    private final RecordCodec<V> codec;
+    private final int recordStride;
+
+    private final boolean[] collapsible;
+    private final AtomicIntegerArray states;
+
+    // producer owned, non-collapsible values are never indexed so their key slots are never compared
+    private final KeyIndex keyIndex;
+
+    private final int mask;
+    private final int capacity;
+
+    private V flyweight; // consumer owned, created on the first drain
+
+    /**
+     * @throws IllegalArgumentException if the records would not fit in a single direct buffer of at most 2GB
+     */
+    public OffHeapCoalescingRingBuffer(int capacity, RecordCodec<V> codec) {
+        this.capacity = nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+
+        this.codec = codec;
+        this.recordStride = (KEY_LENGTH + codec.recordLength() + 7) & ~7; // keep every key 8 byte aligned
+
+        // checking the whole buffer fits an int is what lets every record offset be an int
+        long length = (long) this.capacity * recordStride;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("a capacity of " + this.capacity + " records of " + recordStride +
+                    " bytes needs " + length + " bytes, more than a direct buffer can hold");
+        }
+        this.records = ByteBuffer.allocateDirect((int) length);
+        this.consumerRecords = records.duplicate();
+
+        this.collapsible = new boolean[this.capacity];
+        this.states = new AtomicIntegerArray(this.capacity);
+
+        this.keyIndex = new KeyIndex(this.capacity);
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    public long rejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * @return the number of keyed offers that updated a value already in the buffer
+     */
+    public long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of keyed offers that added a new entry to the buffer
+     */
+    public long appendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * @return the number of offers without a key that were added to the buffer
+     */
+    public long nonCollapsibleCount() {
+        return nonCollapsibleCount;
+    }
+
+    public long nextWrite() {
+        return nextWrite;
+    }
+
+    public long firstWrite() {
+        return firstWrite;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstWrite == nextWrite;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    @Override
+    public boolean offer(Long key, V value) {
+        return offer(key.longValue(), value);
+    }
+
+    /**
+     * Add a value to be collapsed on the give key
+     *
+     * @param key the key on which to collapse the value
+     *        equality is determined by ==
+     * @return true if the value was added or false if the buffer was full
+     */
+    public boolean offer(long key, V value) {
+        int bucket = keyIndex.bucket(key);
+
+        for (long updatePosition = keyIndex.newest(bucket); updatePosition >= firstWrite; updatePosition = keyIndex.previous(updatePosition)) {
+            int index = mask(updatePosition);
+            int offset = index * recordStride;
+
+            if (key == records.getLong(offset)) {
+                if (states.compareAndSet(index, PUBLISHED, WRITING)) {  // fails once the reader has taken the slot
+                    codec.encode(value, records, offset + KEY_LENGTH);
+                    states.lazySet(index, PUBLISHED);
+
+                    COALESCED_COUNT.lazySet(this, coalescedCount + 1);
+                    return true;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        long nextWrite = this.nextWrite;
+        if (!add(key, true, value)) {
+            return false;
+        }
+
+        keyIndex.index(bucket, nextWrite);
+        APPENDED_COUNT.lazySet(this, appendedCount + 1);
+        return true;
+    }
+
+    @Override
+    public boolean offer(V value) {
+        if (!add(0, false, value)) {
+            return false;
+        }
+
+        NON_COLLAPSIBLE_COUNT.lazySet(this, nonCollapsibleCount + 1);
+        return true;
+    }
+
+    private boolean add(long key, boolean collapsible, V value) {
+        if (isFull()) {
+            REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+            return false;
+        }
+
+        cleanUp();
+        store(key, collapsible, value);
+        return true;
+    }
+
+    private void cleanUp() {
+        long lastRead = this.lastRead;
+
+        if (lastRead == lastCleaned) {
+            return;
+        }
+
+        while (lastCleaned < lastRead) {
+            states.lazySet(mask(++lastCleaned), FREE);
+        }
+    }
+
+    private void store(long key, boolean collapsible, V value) {
+        long nextWrite = this.nextWrite;
+        int index = mask(nextWrite);
+        int offset = index * recordStride;
+
+        records.putLong(offset, key);
+        codec.encode(value, records, offset + KEY_LENGTH);
+        this.collapsible[index] = collapsible;
+        states.lazySet(index, PUBLISHED);
+
+        NEXT_WRITE.lazySet(this, nextWrite + 1);
+    }
+
+    /**
+     * Decodes every value into a new instance from the codec, use {@link #drain(ValueHandler)} to avoid allocating
+     */
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return fill(bucket, nextWrite);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return fill(bucket, claimUpTo);
+    }
+
+    private int fill(Collection<? super V> bucket, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            take(index);
+
+            V value = codec.newInstance();
+            codec.decode(consumerRecords, index * recordStride + KEY_LENGTH, value);
+            bucket.add(value);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super Long, ? super V> handler) {
+        return dispatch(handler, nextWrite);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super Long, ? super V> handler, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return dispatch(handler, claimUpTo);
+    }
+
+    public int drain(LongValueHandler<? super V> handler) {
+        return dispatch(handler, nextWrite);
+    }
+
+    public int drain(LongValueHandler<? super V> handler, int maxItems) {
+        long claimUpTo = min(firstWrite + maxItems, nextWrite);
+        return dispatch(handler, claimUpTo);
+    }
+
+    private int dispatch(LongValueHandler<? super V> handler, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+
+        if (flyweight == null) {
+            flyweight = codec.newInstance();
+        }
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            int offset = index * recordStride;
+            take(index);
+
+            codec.decode(consumerRecords, offset + KEY_LENGTH, flyweight);
+            handler.onValue(consumerRecords.getLong(offset), collapsible[index], flyweight, readIndex == claimUpTo - 1);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    private int dispatch(ValueHandler<? super Long, ? super V> handler, long claimUpTo) {
+        firstWrite = claimUpTo;
+        long lastRead = this.lastRead;
+
+        if (flyweight == null) {
+            flyweight = codec.newInstance();
+        }
+
+        for (long readIndex = lastRead + 1; readIndex < claimUpTo; readIndex++) {
+            int index = mask(readIndex);
+            int offset = index * recordStride;
+            take(index);
+
+            codec.decode(consumerRecords, offset + KEY_LENGTH, flyweight);
+            handler.onValue(collapsible[index] ? consumerRecords.getLong(offset) : null, flyweight, readIndex == claimUpTo - 1);
+        }
+
+        LAST_READ.lazySet(this, claimUpTo - 1);
+        return (int) (claimUpTo - lastRead - 1);
+    }
+
+    private void take(int index) {
+        // the producer may still be rewriting a record it matched before we moved firstWrite past it
+        while (!states.compareAndSet(index, PUBLISHED, TAKEN)) {
+            Thread.yield();
+        }
+    }
+
+    private int mask(long value) {
+        return ((int) value) & mask;
+    }
+
+}
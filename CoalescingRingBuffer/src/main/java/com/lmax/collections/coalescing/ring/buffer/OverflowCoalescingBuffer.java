@@ -0,0 +1,441 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Math.min;
+
+/**
+ * Wraps a coalescing buffer to decide what happens to an offer made while the buffer is full, rather than rejecting it.
+ * Offers must come from a single producer thread, each policy counts what it did so that behaviour under bursts can be measured.
+ * Values that overflow into the queue kept by {@link Policy#SPILL} and {@link Policy#DROP_OLDEST} are polled after those in the buffer,
+ * and while any are queued later offers join the queue so that ordering is kept. Keyed values in the queue are collapsed
+ * with each other but not with a value for the same key already in the buffer, which is polled first.
+ */
+public final class OverflowCoalescingBuffer<K, V> implements CoalescingBuffer<K, V> {
+
+    public enum Policy {
+        /**
+         * spin, yield and then park the producer until the buffer has room, an interrupted producer stops waiting and is rejected
+         */
+        PARK,
+
+        /**
+         * queue values in an unbounded overflow queue until the buffer has room
+         */
+        SPILL,
+
+        /**
+         * queue values in an overflow queue holding up to the capacity of the buffer, making room once it is full
+         * by dropping the oldest queued value offered without a key, keyed values are rejected if there is none to drop
+         */
+        DROP_OLDEST,
+
+        /**
+         * reject the value and pass it to an {@link OverflowHandler}
+         */
+        CALLBACK
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<OverflowCoalescingBuffer> REJECTION_COUNT =
+            AtomicLongFieldUpdater.newUpdater(OverflowCoalescingBuffer.class, "rejectionCount");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<OverflowCoalescingBuffer> PARKED_COUNT =
+            AtomicLongFieldUpdater.newUpdater(OverflowCoalescingBuffer.class, "parkedCount");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<OverflowCoalescingBuffer> PARKED_NANOS =
+            AtomicLongFieldUpdater.newUpdater(OverflowCoalescingBuffer.class, "parkedNanos");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<OverflowCoalescingBuffer> SPILLED_COUNT =
+            AtomicLongFieldUpdater.newUpdater(OverflowCoalescingBuffer.class, "spilledCount");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<OverflowCoalescingBuffer> DROPPED_COUNT =
+            AtomicLongFieldUpdater.newUpdater(OverflowCoalescingBuffer.class, "droppedCount");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<OverflowCoalescingBuffer> HANDED_OFF_COUNT =
+            AtomicLongFieldUpdater.newUpdater(OverflowCoalescingBuffer.class, "handedOffCount");
+
+    private static final Object TAKEN = new Object(); // value of a queued entry the consumer has already taken or the producer dropped
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long MIN_PARK_NANOS = 1000;
+    private static final long MAX_PARK_NANOS = 1000 * 1000;
+
+    private final CoalescingBuffer<K, V> buffer;
+    private final Policy policy;
+    private final OverflowHandler<? super K, ? super V> overflowHandler;
+    private final int overflowCapacity;
+
+    private final Queue<Entry<K>> overflow = new ConcurrentLinkedQueue<Entry<K>>();
+    private final AtomicInteger overflowSize = new AtomicInteger(0);
+    private final BatchEndHandler<K, V> batchEndHandler = new BatchEndHandler<K, V>();
+
+    // producer owned, the queued entry for each key and the queued entries without a key oldest first
+    private final Map<K, Entry<K>> pending = new HashMap<K, Entry<K>>();
+    private final ArrayDeque<Entry<K>> nonCollapsible = new ArrayDeque<Entry<K>>();
+    private int droppedInQueue = 0; // producer owned, dropped entries that may still be linked in the overflow queue
+
+    private volatile long rejectionCount = 0;
+    private volatile long parkedCount = 0;   // offers that had to wait for room
+    private volatile long parkedNanos = 0;   // total time producers spent waiting for room
+    private volatile long spilledCount = 0;  // values added to the overflow queue
+    private volatile long droppedCount = 0;  // values dropped from the overflow queue to make room
+    private volatile long handedOffCount = 0; // values passed to the overflow handler
+
+    /**
+     * @param policy any policy but {@link Policy#CALLBACK}, which needs a handler
+     */
+    public OverflowCoalescingBuffer(CoalescingBuffer<K, V> buffer, Policy policy) {
+        this(buffer, policy, null);
+    }
+
+    public OverflowCoalescingBuffer(CoalescingBuffer<K, V> buffer, OverflowHandler<? super K, ? super V> overflowHandler) {
+        this(buffer, Policy.CALLBACK, overflowHandler);
+    }
+
+    private OverflowCoalescingBuffer(CoalescingBuffer<K, V> buffer, Policy policy, OverflowHandler<? super K, ? super V> overflowHandler) {
+        if (policy == Policy.CALLBACK && overflowHandler == null) {
+            throw new IllegalArgumentException("the callback policy needs an overflow handler");
+        }
+
+        this.buffer = buffer;
+        this.policy = policy;
+        this.overflowHandler = overflowHandler;
+        this.overflowCapacity = policy == Policy.DROP_OLDEST ? buffer.capacity() : Integer.MAX_VALUE;
+    }
+
+    public Policy policy() {
+        return policy;
+    }
+
+    public long rejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * @return the number of offers that had to wait for the buffer to have room
+     */
+    public long parkedCount() {
+        return parkedCount;
+    }
+
+    /**
+     * @return the total nanoseconds offers spent waiting for the buffer to have room
+     */
+    public long parkedNanos() {
+        return parkedNanos;
+    }
+
+    /**
+     * @return the number of values added to the overflow queue, not counting those collapsed into a value already queued
+     */
+    public long spilledCount() {
+        return spilledCount;
+    }
+
+    /**
+     * @return the number of values dropped from the overflow queue to make room
+     */
+    public long droppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the number of values passed to the overflow handler
+     */
+    public long handedOffCount() {
+        return handedOffCount;
+    }
+
+    /**
+     * @return the number of values waiting in the overflow queue
+     */
+    public int overflowSize() {
+        return overflowSize.get();
+    }
+
+    @Override
+    public int size() {
+        return buffer.size() + overflowSize.get();
+    }
+
+    /**
+     * @return the capacity of the wrapped buffer, not counting the overflow queue
+     */
+    @Override
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return buffer.isEmpty() && overflowSize.get() == 0;
+    }
+
+    @Override
+    public boolean isFull() {
+        return buffer.isFull();
+    }
+
+    @Override
+    public boolean offer(K key, V value) {
+        if (overflowSize.get() == 0) {
+            forgetQueued();
+            if (buffer.offer(key, value)) {
+                return true;
+            }
+        }
+
+        return overflow(key, value);
+    }
+
+    @Override
+    public boolean offer(V value) {
+        if (overflowSize.get() == 0) {
+            forgetQueued();
+            if (buffer.offer(value)) {
+                return true;
+            }
+        }
+
+        return overflow(null, value);
+    }
+
+    private void forgetQueued() {
+        // the consumer has taken every queued entry so drop our references to them
+        if (!pending.isEmpty()) {
+            pending.clear();
+        }
+        if (!nonCollapsible.isEmpty()) {
+            nonCollapsible.clear();
+        }
+    }
+
+    private boolean overflow(K key, V value) {
+        switch (policy) {
+            case PARK:
+                return park(key, value);
+            case CALLBACK:
+                HANDED_OFF_COUNT.lazySet(this, handedOffCount + 1);
+                overflowHandler.onOverflow(key, value);
+                return reject();
+            default:
+                return spill(key, value);
+        }
+    }
+
+    private boolean park(K key, V value) {
+        long start = System.nanoTime();
+        int counter = SPIN_TRIES + YIELD_TRIES;
+        long parkNanos = MIN_PARK_NANOS;
+        boolean added;
+
+        PARKED_COUNT.lazySet(this, parkedCount + 1);
+        do {
+            if (Thread.currentThread().isInterrupted()) {
+                added = false;
+                break;
+            }
+
+            if (counter > YIELD_TRIES) {
+                counter--;
+            } else if (counter > 0) {
+                counter--;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = min(parkNanos << 1, MAX_PARK_NANOS);
+            }
+
+            added = key == null ? buffer.offer(value) : buffer.offer(key, value);
+        } while (!added);
+
+        PARKED_NANOS.lazySet(this, parkedNanos + System.nanoTime() - start);
+        return added || reject();
+    }
+
+    private boolean spill(K key, V value) {
+        if (key != null) {
+            Entry<K> existing = pending.get(key);
+            if (existing != null && existing.update(value)) {
+                return true;
+            }
+        }
+
+        if (overflowSize.get() >= overflowCapacity && !dropOldest()) {
+            return reject();
+        }
+
+        Entry<K> entry = new Entry<K>(key, value);
+        if (key != null) {
+            pending.put(key, entry);
+        } else if (policy == Policy.DROP_OLDEST) {
+            nonCollapsible.add(entry);
+        }
+
+        overflowSize.incrementAndGet();
+        overflow.add(entry);
+        SPILLED_COUNT.lazySet(this, spilledCount + 1);
+        return true;
+    }
+
+    private boolean dropOldest() {
+        for (Entry<K> oldest = nonCollapsible.poll(); oldest != null; oldest = nonCollapsible.poll()) {
+            // taking the value leaves the entry in the queue for the consumer to skip rather than searching the queue for it,
+            // and fails if the consumer took it first
+            if (oldest.take() != TAKEN) {
+                overflowSize.decrementAndGet();
+                DROPPED_COUNT.lazySet(this, droppedCount + 1);
+                purgeDropped();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void purgeDropped() {
+        // unlink dropped entries once there are as many as the queue may hold, so a stalled consumer cannot let them pile up
+        if (++droppedInQueue < overflowCapacity) {
+            return;
+        }
+
+        for (Iterator<Entry<K>> entries = overflow.iterator(); entries.hasNext(); ) {
+            if (entries.next().isTaken()) {
+                entries.remove();
+            }
+        }
+        droppedInQueue = 0;
+    }
+
+    private boolean reject() {
+        REJECTION_COUNT.lazySet(this, rejectionCount + 1);
+        return false;
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return poll(bucket, Integer.MAX_VALUE);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        int count = buffer.poll(bucket, maxItems);
+        if (!isOverflowNext()) {
+            return count;
+        }
+
+        while (count < maxItems) {
+            Entry<K> entry = overflow.poll();
+            if (entry == null) {
+                break;
+            }
+
+            Object value = entry.take();
+            if (value != TAKEN) { // skip entries the producer dropped
+                overflowSize.decrementAndGet();
+                bucket.add((V) value);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private boolean isOverflowNext() {
+        // once a value is queued the producer only offers to the buffer again after we have taken every queued value,
+        // so having seen one queued, an empty buffer means every value offered before it has been polled
+        return overflow.peek() != null && buffer.isEmpty();
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        batchEndHandler.delegate = handler;
+        int count = buffer.drain(batchEndHandler, maxItems);
+
+        for (boolean overflowNext = isOverflowNext(); overflowNext && count < maxItems; ) {
+            Entry<K> entry = overflow.poll();
+            if (entry == null) {
+                break;
+            }
+
+            Object value = entry.take();
+            if (value != TAKEN) {
+                overflowSize.decrementAndGet();
+                batchEndHandler.onValue(entry.key, (V) value, false);
+                count++;
+            }
+        }
+
+        batchEndHandler.endBatch();
+        return count;
+    }
+
+    private static final class Entry<K> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Entry, Object> VALUE =
+                AtomicReferenceFieldUpdater.newUpdater(Entry.class, Object.class, "value");
+
+        private final K key;
+        private volatile Object value;
+
+        private Entry(K key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        private boolean update(Object newValue) {
+            while (true) {
+                Object currentValue = value;
+
+                if (currentValue == TAKEN) {
+                    return false;
+                }
+
+                if (VALUE.compareAndSet(this, currentValue, newValue)) {
+                    return true;
+                }
+            }
+        }
+
+        private Object take() {
+            return VALUE.getAndSet(this, TAKEN);
+        }
+
+        private boolean isTaken() {
+            return value == TAKEN;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Math.min;
+
+/**
+ * Spins, then yields, then parks for exponentially longer periods up to a maximum,
+ * so an idle consumer costs almost nothing while a busy one still reacts quickly
+ */
+public final class ParkingWaitStrategy implements WaitStrategy {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long MIN_PARK_NANOS = 1000;
+
+    private final long maxParkNanos;
+
+    public ParkingWaitStrategy() {
+        this(1000 * 1000);
+    }
+
+    public ParkingWaitStrategy(long maxParkNanos) {
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    @Override
+    public boolean waitFor(CoalescingBuffer<?, ?> buffer, long timeoutNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        int counter = SPIN_TRIES + YIELD_TRIES;
+        long parkNanos = MIN_PARK_NANOS;
+
+        while (buffer.isEmpty()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                return false;
+            }
+
+            if (counter > YIELD_TRIES) {
+                counter--;
+            } else if (counter > 0) {
+                counter--;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(min(parkNanos, remaining));
+                parkNanos = min(parkNanos << 1, maxParkNanos);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+    }
+
+}
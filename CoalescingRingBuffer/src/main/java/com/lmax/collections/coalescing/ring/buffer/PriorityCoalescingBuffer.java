@@ -0,0 +1,132 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+
+/**
+ * Puts urgent values in a lane of their own that every poll empties before it takes anything from the data lane,
+ * so a control message is never queued behind a backlog of coalesced updates.
+ * Values offered without a key are urgent, keyed values go to the data lane unless offered through {@link #offerUrgent(Object, Object)}.
+ * Values are only kept in order within a lane, an urgent value overtakes any data already pending
+ * and an urgent value for a key does not replace a pending data value for the same key.
+ * The data lane is starved for as long as urgent values keep arriving faster than the consumer takes them.
+ */
+public final class PriorityCoalescingBuffer<K, V> implements CoalescingBuffer<K, V> {
+
+    private final CoalescingBuffer<K, V> urgent;
+    private final CoalescingBuffer<K, V> data;
+    private final BatchEndHandler<K, V> batchEndHandler = new BatchEndHandler<K, V>();
+
+    public PriorityCoalescingBuffer(int urgentCapacity, int dataCapacity) {
+        this(new CoalescingRingBuffer<K, V>(urgentCapacity), new CoalescingRingBuffer<K, V>(dataCapacity));
+    }
+
+    public PriorityCoalescingBuffer(CoalescingBuffer<K, V> urgent, CoalescingBuffer<K, V> data) {
+        this.urgent = urgent;
+        this.data = data;
+    }
+
+    public CoalescingBuffer<K, V> urgentLane() {
+        return urgent;
+    }
+
+    public CoalescingBuffer<K, V> dataLane() {
+        return data;
+    }
+
+    @Override
+    public int size() {
+        return urgent.size() + data.size();
+    }
+
+    @Override
+    public int capacity() {
+        return urgent.capacity() + data.capacity();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return urgent.isEmpty() && data.isEmpty();
+    }
+
+    /**
+     * @return true if both lanes are full, an offer may be rejected sooner if its own lane is full
+     */
+    @Override
+    public boolean isFull() {
+        return urgent.isFull() && data.isFull();
+    }
+
+    /**
+     * Add a value to the data lane to be collapsed on the given key
+     */
+    @Override
+    public boolean offer(K key, V value) {
+        return data.offer(key, value);
+    }
+
+    /**
+     * Add a value to the urgent lane to be collapsed on the given key with other urgent values
+     *
+     * @return true if the value was added or false if the urgent lane was full
+     */
+    public boolean offerUrgent(K key, V value) {
+        return urgent.offer(key, value);
+    }
+
+    /**
+     * Add a value to the urgent lane that will never be collapsed
+     */
+    @Override
+    public boolean offer(V value) {
+        return urgent.offer(value);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return poll(bucket, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        int count = urgent.poll(bucket, maxItems);
+
+        if (count < maxItems) {
+            count += data.poll(bucket, maxItems - count);
+        }
+
+        return count;
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        batchEndHandler.delegate = handler;
+        int count = urgent.drain(batchEndHandler, maxItems);
+
+        if (count < maxItems) {
+            count += data.drain(batchEndHandler, maxItems - count);
+        }
+
+        batchEndHandler.endBatch();
+        return count;
+    }
+
+}
@@ -0,0 +1,27 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * The sequences and counters written by the producer of a ring buffer
+ */
+abstract class ProducerSequences extends LhsPadding {
+    volatile long nextWrite = 1; // the next write index
+    long lastCleaned = 0; // the last index that was nulled out by the producer
+    volatile long rejectionCount = 0;
+    volatile long coalescedCount = 0; // keyed offers that updated a pending value
+    volatile long appendedCount = 0; // keyed offers that added a new entry
+    volatile long nonCollapsibleCount = 0; // offers without a key
+}
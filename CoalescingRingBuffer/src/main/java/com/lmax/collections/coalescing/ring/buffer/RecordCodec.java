@@ -0,0 +1,42 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes values as fixed length records in an {@link OffHeapCoalescingRingBuffer}.
+ * Implementations must only use the absolute get and put methods of the buffer, between offset and offset + recordLength.
+ */
+public interface RecordCodec<V> {
+
+    /**
+     * @return the number of bytes every encoded value occupies
+     */
+    int recordLength();
+
+    void encode(V value, ByteBuffer buffer, int offset);
+
+    /**
+     * Overwrite the fields of an existing value with the record at the given offset
+     */
+    void decode(ByteBuffer buffer, int offset, V value);
+
+    /**
+     * @return a value for decoding into, created only when polling into a collection or once per draining buffer
+     */
+    V newInstance();
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The sequences shared by the producer and consumer of a single producer ring buffer.
+ * They are inlined into the buffer and padded so that the fields written by the producer and those
+ * written by the consumer sit on different cache lines from each other and from neighbouring objects.
+ * Superclass fields are always laid out before subclass fields which is what keeps the padding in place.
+ */
+abstract class RingBufferSequences extends ConsumerSequences {
+    protected long p17, p18, p19, p20, p21, p22, p23;
+
+    static final AtomicLongFieldUpdater<ProducerSequences> NEXT_WRITE =
+            AtomicLongFieldUpdater.newUpdater(ProducerSequences.class, "nextWrite");
+
+    static final AtomicLongFieldUpdater<ProducerSequences> REJECTION_COUNT =
+            AtomicLongFieldUpdater.newUpdater(ProducerSequences.class, "rejectionCount");
+
+    static final AtomicLongFieldUpdater<ProducerSequences> COALESCED_COUNT =
+            AtomicLongFieldUpdater.newUpdater(ProducerSequences.class, "coalescedCount");
+
+    static final AtomicLongFieldUpdater<ProducerSequences> APPENDED_COUNT =
+            AtomicLongFieldUpdater.newUpdater(ProducerSequences.class, "appendedCount");
+
+    static final AtomicLongFieldUpdater<ProducerSequences> NON_COLLAPSIBLE_COUNT =
+            AtomicLongFieldUpdater.newUpdater(ProducerSequences.class, "nonCollapsibleCount");
+
+    static final AtomicLongFieldUpdater<ConsumerSequences> FIRST_WRITE =
+            AtomicLongFieldUpdater.newUpdater(ConsumerSequences.class, "firstWrite");
+
+    static final AtomicLongFieldUpdater<ConsumerSequences> LAST_READ =
+            AtomicLongFieldUpdater.newUpdater(ConsumerSequences.class, "lastRead");
+
+    static final AtomicLongFieldUpdater<ConsumerSequences> EXPIRED_COUNT =
+            AtomicLongFieldUpdater.newUpdater(ConsumerSequences.class, "expiredCount");
+
+    static int nextPowerOfTwo(int value) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
+    }
+
+    public int size() {
+
+        // loop until you get a consistent read of both volatile indices
+        while (true) {
+            long lastReadBefore     = lastRead;
+            long currentNextWrite   = this.nextWrite;
+            long lastReadAfter      = lastRead;
+
+            if (lastReadBefore == lastReadAfter) {
+                return (int) (currentNextWrite - lastReadBefore) - 1;
+            }
+        }
+    }
+}
+
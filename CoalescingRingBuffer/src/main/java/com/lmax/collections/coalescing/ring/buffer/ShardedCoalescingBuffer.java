@@ -0,0 +1,176 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+
+/**
+ * Partitions keys across a number of independent {@link CoalescingRingBuffer}s so that consumption can be spread over several threads.
+ * Every value for a key goes to the same shard, so values for a key are still polled in the order they were offered,
+ * and values offered without a key all go to the first shard so they too stay in order.
+ * Offers must come from a single producer thread. Either one consumer polls the sharded buffer, visiting the shards
+ * in turn starting from a different shard each time, or each shard is polled by its own consumer through {@link #shard(int)}.
+ */
+public final class ShardedCoalescingBuffer<K, V> implements CoalescingBuffer<K, V> {
+
+    private final CoalescingRingBuffer<K, V>[] shards;
+    private final int shardBits;
+    private final BatchEndHandler<K, V> batchEndHandler = new BatchEndHandler<K, V>();
+
+    private int nextShard; // consumer owned, the shard the next poll starts from
+
+    public ShardedCoalescingBuffer(int numberOfShards, int capacityPerShard) {
+        this(numberOfShards, capacityPerShard, false, 0);
+    }
+
+    /**
+     * @param numberOfShards rounded up to the next power of two
+     * @param recordLatency whether each shard records the offer to poll latency and batch sizes
+     * @param numberOfHotKeys how many of the most frequently updated keys each shard tracks, zero to not track any
+     */
+    public ShardedCoalescingBuffer(int numberOfShards, int capacityPerShard, boolean recordLatency, int numberOfHotKeys) {
+        this.shardBits = 32 - Integer.numberOfLeadingZeros(numberOfShards - 1);
+        this.shards = newShards(1 << shardBits);
+
+        boolean instrumented = recordLatency || numberOfHotKeys > 0;
+        for (int i = 0; i < shards.length; i++) {
+            BufferInstrumentation instrumentation = instrumented ? new BufferInstrumentation(recordLatency, numberOfHotKeys) : null;
+            shards[i] = new CoalescingRingBuffer<K, V>(capacityPerShard, instrumentation);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> CoalescingRingBuffer<K, V>[] newShards(int numberOfShards) {
+        return (CoalescingRingBuffer<K, V>[]) new CoalescingRingBuffer<?, ?>[numberOfShards];
+    }
+
+    public int numberOfShards() {
+        return shards.length;
+    }
+
+    /**
+     * @return the shard at the given index, for a consumer dedicated to that shard
+     */
+    public CoalescingRingBuffer<K, V> shard(int index) {
+        return shards[index];
+    }
+
+    /**
+     * @return the index of the shard that values for the given key are offered to
+     */
+    public int shardIndexOf(K key) {
+        if (shardBits == 0) {
+            return 0;
+        }
+
+        // take the top bits of a multiplicative hash so that the shards do not all share the low bits their own key index uses
+        return (key.hashCode() * 0x9E3779B9) >>> (32 - shardBits);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (CoalescingRingBuffer<K, V> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int capacity() {
+        return shards.length * shards[0].capacity();
+    }
+
+    /**
+     * @return true if no shard holds a value
+     */
+    @Override
+    public boolean isEmpty() {
+        for (CoalescingRingBuffer<K, V> shard : shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every shard is full, an offer may be rejected sooner if its own shard is full
+     */
+    @Override
+    public boolean isFull() {
+        for (CoalescingRingBuffer<K, V> shard : shards) {
+            if (!shard.isFull()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean offer(K key, V value) {
+        return shards[shardIndexOf(key)].offer(key, value);
+    }
+
+    @Override
+    public boolean offer(V value) {
+        return shards[0].offer(value);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return poll(bucket, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        int count = 0;
+
+        for (int i = 0, shard = nextShard(); i < shards.length && count < maxItems; i++, shard = next(shard)) {
+            count += shards[shard].poll(bucket, maxItems - count);
+        }
+
+        return count;
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        int count = 0;
+        batchEndHandler.delegate = handler;
+
+        for (int i = 0, shard = nextShard(); i < shards.length && count < maxItems; i++, shard = next(shard)) {
+            count += shards[shard].drain(batchEndHandler, maxItems - count);
+        }
+
+        batchEndHandler.endBatch();
+        return count;
+    }
+
+    private int nextShard() {
+        int shard = nextShard;
+        nextShard = next(shard);
+        return shard;
+    }
+
+    private int next(int shard) {
+        return (shard + 1) & (shards.length - 1);
+    }
+
+}
@@ -0,0 +1,35 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * Supplies a batch of keys and values to {@link CoalescingRingBuffer#offerAll(ValueSource)}
+ * straight from wherever the producer holds them, such as a decoded market data packet
+ */
+public interface ValueSource<K, V> {
+
+    /**
+     * @return the number of values in the batch
+     */
+    int size();
+
+    /**
+     * @return the key on which to collapse the value at the given index or null if it should never be collapsed
+     */
+    K keyAt(int index);
+
+    V valueAt(int index);
+
+}
@@ -0,0 +1,35 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+/**
+ * Decides how a consumer waits for values to arrive in a {@link BlockingCoalescingBuffer},
+ * trading CPU usage against the latency of noticing new values
+ */
+public interface WaitStrategy {
+
+    /**
+     * Wait until the buffer is no longer empty or the timeout has elapsed
+     *
+     * @return true if the buffer has values to poll or false if the timeout elapsed
+     */
+    boolean waitFor(CoalescingBuffer<?, ?> buffer, long timeoutNanos) throws InterruptedException;
+
+    /**
+     * Called by producers after every successful offer to wake any consumer blocked in waitFor
+     */
+    void signalAllWhenBlocking();
+
+}
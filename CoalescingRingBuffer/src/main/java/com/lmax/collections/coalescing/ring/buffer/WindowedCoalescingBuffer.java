@@ -0,0 +1,144 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Math.min;
+
+/**
+ * Wraps a coalescing buffer so that the consumer is delivered at most one batch per window,
+ * polls in between return nothing and leave the values in the buffer where they carry on coalescing.
+ * A window delivers only the entries that were pending when it opened, and as a key has at most one pending entry
+ * this delivers at most one value per key per window, provided the wrapped buffer polls entries in the order they were added.
+ * A poll limited by maxItems that leaves some of those entries behind does not start a new window, so a backlog is delivered without waiting.
+ * The window is only tracked by the consumer, offers go straight to the wrapped buffer.
+ */
+public final class WindowedCoalescingBuffer<K, V> implements CoalescingBuffer<K, V> {
+    private final CoalescingBuffer<K, V> buffer;
+    private final Clock clock;
+    private final long windowNanos;
+
+    // consumer owned
+    private long lastDelivery;
+    private int windowEntries; // the entries pending when the current window opened that are still to be polled
+
+    public WindowedCoalescingBuffer(CoalescingBuffer<K, V> buffer, long window, TimeUnit unit) {
+        this(buffer, window, unit, Clock.SYSTEM);
+    }
+
+    public WindowedCoalescingBuffer(CoalescingBuffer<K, V> buffer, long window, TimeUnit unit, Clock clock) {
+        this.buffer = buffer;
+        this.clock = clock;
+        this.windowNanos = unit.toNanos(window);
+        this.lastDelivery = clock.nanoTime() - windowNanos;
+    }
+
+    @Override
+    public int size() {
+        return buffer.size();
+    }
+
+    @Override
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return buffer.isEmpty();
+    }
+
+    @Override
+    public boolean isFull() {
+        return buffer.isFull();
+    }
+
+    @Override
+    public boolean offer(K key, V value) {
+        return buffer.offer(key, value);
+    }
+
+    @Override
+    public boolean offer(V value) {
+        return buffer.offer(value);
+    }
+
+    /**
+     * @return the nanoseconds until the current window closes, zero if the next poll may deliver
+     */
+    public long nanosUntilNextDelivery() {
+        if (windowEntries > 0) {
+            return 0;
+        }
+
+        return Math.max(0, lastDelivery + windowNanos - clock.nanoTime());
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket) {
+        return poll(bucket, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int poll(Collection<? super V> bucket, int maxItems) {
+        if (!isWindowOpen()) {
+            return 0;
+        }
+
+        int claimed = min(maxItems, windowEntries);
+        windowEntries -= claimed;
+        return buffer.poll(bucket, claimed);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drain(ValueHandler<? super K, ? super V> handler, int maxItems) {
+        if (!isWindowOpen()) {
+            return 0;
+        }
+
+        int claimed = min(maxItems, windowEntries);
+        windowEntries -= claimed;
+        return buffer.drain(handler, claimed);
+    }
+
+    private boolean isWindowOpen() {
+        if (windowEntries > 0) {
+            return true;
+        }
+
+        long now = clock.nanoTime();
+        if (now - lastDelivery < windowNanos) {
+            return false;
+        }
+
+        // as only this consumer polls, every entry counted here is still pending when it is claimed,
+        // so a poll for fewer than this many claims exactly that many entries whether or not they are delivered
+        windowEntries = buffer.size();
+        if (windowEntries == 0) {
+            return false;
+        }
+
+        lastDelivery = now;
+        return true;
+    }
+
+}
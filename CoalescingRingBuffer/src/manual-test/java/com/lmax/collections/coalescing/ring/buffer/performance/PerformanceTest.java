@@ -74,11 +74,12 @@ public class PerformanceTest {
 	}
 
 	public static void main(String[] args) throws Exception {
+        long numberOfUpdates = args.length > 0 ? Long.parseLong(args[0]) : 2 * BILLION;
         long[] results = new long[3];
         int runNumber = 1;
 
         do {
-            long result = run(runNumber++, 2 * BILLION);
+            long result = run(runNumber++, numberOfUpdates);
             update(results, result);
             Thread.sleep(5 * SECONDS);
 
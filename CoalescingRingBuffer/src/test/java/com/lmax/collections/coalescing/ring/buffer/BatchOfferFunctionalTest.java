@@ -0,0 +1,157 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchOfferFunctionalTest {
+
+    @Test
+    public void shouldAddEveryValueOfTheBatch() {
+        CoalescingRingBuffer<String, String> buffer = new CoalescingRingBuffer<String, String>(8);
+
+        assertEquals(3, buffer.offerAll(new String[] {"VOD", null, "BP"}, new String[] {"VOD 1", "CONTROL", "BP 1"}));
+
+        assertEquals(3, buffer.size());
+        assertEquals("[VOD 1, CONTROL, BP 1]", poll(buffer).toString());
+    }
+
+    @Test
+    public void shouldCollapseValuesWithinTheBatchAndWithPendingValues() {
+        CoalescingRingBuffer<String, String> buffer = new CoalescingRingBuffer<String, String>(8);
+        buffer.offer("VOD", "VOD 1");
+
+        assertEquals(4, buffer.offerAll(new String[] {"BP", "VOD", "BP", "RDS"}, new String[] {"BP 1", "VOD 2", "BP 2", "RDS 1"}));
+
+        assertEquals(2, buffer.coalescedCount());
+        assertEquals(3, buffer.appendedCount());
+        assertEquals("[VOD 2, BP 2, RDS 1]", poll(buffer).toString());
+    }
+
+    @Test
+    public void shouldPublishTheBatchOnceWhenItEnds() {
+        final CoalescingRingBuffer<String, String> buffer = new CoalescingRingBuffer<String, String>(8);
+        final List<Integer> sizesSeen = new ArrayList<Integer>();
+
+        buffer.offerAll(new ValueSource<String, String>() {
+            @Override
+            public int size() {
+                return 3;
+            }
+
+            @Override
+            public String keyAt(int index) {
+                sizesSeen.add(buffer.size());
+                return "KEY " + index;
+            }
+
+            @Override
+            public String valueAt(int index) {
+                return "VALUE " + index;
+            }
+        });
+
+        assertEquals("[0, 0, 0]", sizesSeen.toString());
+        assertEquals(4, buffer.nextWrite());
+    }
+
+    @Test
+    public void shouldStopAtTheFirstValueThatDoesNotFit() {
+        CoalescingRingBuffer<String, String> buffer = new CoalescingRingBuffer<String, String>(2);
+        buffer.offer("VOD", "VOD 1");
+
+        assertEquals(2, buffer.offerAll(new String[] {"BP", "VOD", "RDS", "BP"}, new String[] {"BP 1", "VOD 2", "RDS 1", "BP 2"}));
+
+        assertEquals(1, buffer.rejectionCount());
+        assertEquals("[VOD 2, BP 1]", poll(buffer).toString());
+    }
+
+    @Test
+    public void shouldReuseSlotsTheConsumerHasReadDuringTheBatch() {
+        CoalescingRingBuffer<String, String> buffer = new CoalescingRingBuffer<String, String>(2);
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        poll(buffer);
+
+        assertEquals(2, buffer.offerAll(new String[] {"VOD", "BP"}, new String[] {"VOD 2", "BP 2"}));
+        assertEquals("[VOD 2, BP 2]", poll(buffer).toString());
+
+        assertEquals(2, buffer.offerAll(new String[] {"RDS", "BT"}, new String[] {"RDS 1", "BT 1"}));
+        assertEquals("[RDS 1, BT 1]", poll(buffer).toString());
+        assertEquals(0, buffer.rejectionCount());
+    }
+
+    @Test
+    public void shouldRefuseKeysAndValuesOfDifferentLengthsBeforeAddingAnything() {
+        CoalescingRingBuffer<String, String> buffer = new CoalescingRingBuffer<String, String>(8);
+
+        try {
+            buffer.offerAll(new String[] {"VOD", "BP"}, new String[] {"VOD 1"});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.appendedCount());
+    }
+
+    @Test
+    public void shouldKeepTheValuesReadBeforeASourceFails() {
+        CoalescingRingBuffer<String, String> buffer = new CoalescingRingBuffer<String, String>(8);
+
+        try {
+            buffer.offerAll(new ValueSource<String, String>() {
+                @Override
+                public int size() {
+                    return 3;
+                }
+
+                @Override
+                public String keyAt(int index) {
+                    if (index == 2) {
+                        throw new IllegalStateException("source failed");
+                    }
+                    return "KEY " + index;
+                }
+
+                @Override
+                public String valueAt(int index) {
+                    return "VALUE " + index;
+                }
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        assertEquals(2, buffer.size());
+        assertEquals(2, buffer.appendedCount());
+
+        // later offers for those keys must collapse into slots the consumer can see
+        assertTrue(buffer.offer("KEY 1", "VALUE 1 UPDATED"));
+        assertEquals("[VALUE 0, VALUE 1 UPDATED]", poll(buffer).toString());
+    }
+
+    private List<String> poll(CoalescingBuffer<String, String> buffer) {
+        List<String> bucket = new ArrayList<String>();
+        buffer.poll(bucket);
+        return bucket;
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchOfferThreadSafetyTest extends ProducerConsumerHarness<long[]> {
+
+    private static final int NUMBER_OF_INSTRUMENTS = 1000;
+    private static final int NUMBER_OF_PACKETS = 100000;
+    private static final int UPDATES_PER_PACKET = 24;
+    private static final long POISON_PILL = -1;
+
+    private final CoalescingRingBuffer<Long, long[]> buffer = new CoalescingRingBuffer<Long, long[]>(1 << 12);
+    private final long[] lastUpdates = new long[NUMBER_OF_INSTRUMENTS];
+    private boolean orderPreserved = true;
+
+    @Override
+    protected void produce(int producerId) {
+        Long[] keys = new Long[UPDATES_PER_PACKET];
+        long[][] values = new long[UPDATES_PER_PACKET][];
+        long update = 0;
+
+        for (int packet = 0; packet < NUMBER_OF_PACKETS; packet++) {
+            for (int i = 0; i < UPDATES_PER_PACKET; i++) {
+                update++;
+                keys[i] = update % NUMBER_OF_INSTRUMENTS;
+                values[i] = new long[] {keys[i], update};
+            }
+            offerAll(keys, values);
+        }
+
+        offerAll(new Long[] {null}, new long[][] {{POISON_PILL, POISON_PILL}});
+    }
+
+    private void offerAll(Long[] keys, long[][] values) {
+        int offset = 0;
+        while (offset < keys.length) {
+            Long[] remainingKeys = new Long[keys.length - offset];
+            long[][] remainingValues = new long[keys.length - offset][];
+            System.arraycopy(keys, offset, remainingKeys, 0, remainingKeys.length);
+            System.arraycopy(values, offset, remainingValues, 0, remainingValues.length);
+
+            offset += buffer.offerAll(remainingKeys, remainingValues);
+            if (offset < keys.length) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @Override
+    protected void poll(int consumerId, List<long[]> bucket, boolean limitedRead) {
+        buffer.poll(bucket);
+    }
+
+    @Override
+    protected boolean isPoisonPill(long[] update) {
+        return update[0] == POISON_PILL;
+    }
+
+    @Override
+    protected void onValue(int consumerId, long[] update) {
+        int instrument = (int) update[0];
+        // the ring buffer may deliver a value twice if the consumer claims it while the producer is collapsing into it
+        orderPreserved &= update[1] >= lastUpdates[instrument];
+        lastUpdates[instrument] = update[1];
+    }
+
+    @Test
+    public void shouldSeeTheLatestUpdateOfEveryInstrumentInOrder() throws InterruptedException {
+        runProducersAndConsumers();
+
+        long lastUpdate = (long) NUMBER_OF_PACKETS * UPDATES_PER_PACKET;
+        assertEquals(true, orderPreserved);
+        for (int instrument = 0; instrument < NUMBER_OF_INSTRUMENTS; instrument++) {
+            long expected = lastUpdate - ((lastUpdate - instrument) % NUMBER_OF_INSTRUMENTS);
+            assertEquals(expected, lastUpdates[instrument]);
+        }
+    }
+
+}
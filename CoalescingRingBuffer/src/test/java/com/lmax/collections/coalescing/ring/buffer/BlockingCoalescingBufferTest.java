@@ -0,0 +1,186 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BlockingCoalescingBufferTest {
+
+    private static class DelayedProducer extends Thread {
+        private final CoalescingBuffer<Integer, String> buffer;
+
+        private DelayedProducer(CoalescingBuffer<Integer, String> buffer) {
+            super("producer");
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+
+            buffer.offer(1, "value");
+        }
+    }
+
+    @Test
+    public void shouldTakeValueOfferedLaterWithBusySpinWaitStrategy() throws Exception {
+        checkTake(new BusySpinWaitStrategy());
+    }
+
+    @Test
+    public void shouldTakeValueOfferedLaterWithYieldingWaitStrategy() throws Exception {
+        checkTake(new YieldingWaitStrategy());
+    }
+
+    @Test
+    public void shouldTakeValueOfferedLaterWithParkingWaitStrategy() throws Exception {
+        checkTake(new ParkingWaitStrategy());
+    }
+
+    @Test
+    public void shouldTakeValueOfferedLaterWithBlockingWaitStrategy() throws Exception {
+        checkTake(new BlockingWaitStrategy());
+    }
+
+    @Test
+    public void shouldTakeValueOfferedLaterWithHandoffWaitStrategy() throws Exception {
+        checkTake(new HandoffWaitStrategy());
+    }
+
+    @Test
+    public void shouldTimeOutWithBusySpinWaitStrategy() throws Exception {
+        checkTimeout(new BusySpinWaitStrategy());
+    }
+
+    @Test
+    public void shouldTimeOutWithYieldingWaitStrategy() throws Exception {
+        checkTimeout(new YieldingWaitStrategy());
+    }
+
+    @Test
+    public void shouldTimeOutWithParkingWaitStrategy() throws Exception {
+        checkTimeout(new ParkingWaitStrategy());
+    }
+
+    @Test
+    public void shouldTimeOutWithBlockingWaitStrategy() throws Exception {
+        checkTimeout(new BlockingWaitStrategy());
+    }
+
+    @Test
+    public void shouldTimeOutWithHandoffWaitStrategy() throws Exception {
+        checkTimeout(new HandoffWaitStrategy());
+    }
+
+    @Test
+    public void shouldOnlyWakeTheHandoffConsumerWhenTheBufferStopsBeingEmpty() throws Exception {
+        HandoffWaitStrategy waitStrategy = new HandoffWaitStrategy();
+        final BlockingCoalescingBuffer<Integer, String> buffer = createBuffer(waitStrategy);
+        final List<String> values = new ArrayList<String>();
+
+        Thread consumer = new Thread("consumer") {
+            @Override
+            public void run() {
+                try {
+                    buffer.take(values);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        consumer.start();
+
+        while (consumer.getState() != Thread.State.WAITING && consumer.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+
+        buffer.offer(1, "first");
+        buffer.offer(2, "second");
+        buffer.offer(1, "third");
+        consumer.join();
+
+        assertEquals(1, waitStrategy.wakeUpCount());
+        assertFalse(values.isEmpty());
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void shouldBeInterruptibleWithHandoffWaitStrategy() throws Exception {
+        BlockingCoalescingBuffer<Integer, String> buffer = createBuffer(new HandoffWaitStrategy());
+
+        Thread.currentThread().interrupt();
+        buffer.take(new ArrayList<String>());
+    }
+
+    @Test
+    public void shouldReturnAvailableValuesWithoutWaiting() throws Exception {
+        BlockingCoalescingBuffer<Integer, String> buffer = createBuffer(new BlockingWaitStrategy());
+        buffer.offer(1, "first");
+        buffer.offer(1, "second");
+        buffer.offer("third");
+
+        List<String> values = new ArrayList<String>();
+        assertEquals(1, buffer.take(values, 1));
+        assertEquals(1, buffer.poll(values, 1, TimeUnit.DAYS));
+
+        assertEquals("second", values.get(0));
+        assertEquals("third", values.get(1));
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void shouldBeInterruptible() throws Exception {
+        BlockingCoalescingBuffer<Integer, String> buffer = createBuffer(new BlockingWaitStrategy());
+
+        Thread.currentThread().interrupt();
+        buffer.take(new ArrayList<String>());
+    }
+
+    private void checkTake(WaitStrategy waitStrategy) throws InterruptedException {
+        BlockingCoalescingBuffer<Integer, String> buffer = createBuffer(waitStrategy);
+        DelayedProducer producer = new DelayedProducer(buffer);
+        producer.start();
+
+        List<String> values = new ArrayList<String>();
+        assertEquals(1, buffer.take(values));
+        assertEquals("value", values.get(0));
+
+        producer.join();
+    }
+
+    private void checkTimeout(WaitStrategy waitStrategy) throws InterruptedException {
+        BlockingCoalescingBuffer<Integer, String> buffer = createBuffer(waitStrategy);
+        List<String> values = new ArrayList<String>();
+
+        long start = System.nanoTime();
+        assertEquals(0, buffer.poll(values, 20, TimeUnit.MILLISECONDS));
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(values.isEmpty());
+    }
+
+    private BlockingCoalescingBuffer<Integer, String> createBuffer(WaitStrategy waitStrategy) {
+        return new BlockingCoalescingBuffer<Integer, String>(new CoalescingRingBuffer<Integer, String>(8), waitStrategy);
+    }
+
+}
@@ -0,0 +1,207 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class CoalescingBufferProcessorTest {
+
+    private static final class ManualExecutor implements Executor {
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        private void runAll() {
+            for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                task.run();
+            }
+        }
+    }
+
+    private static final class RecordingHandler implements ValueHandler<String, String> {
+        private final List<String> values;
+
+        private RecordingHandler(List<String> values) {
+            this.values = values;
+        }
+
+        @Override
+        public void onValue(String key, String value, boolean endOfBatch) {
+            values.add(value + (endOfBatch ? " end" : ""));
+        }
+    }
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final List<String> values = new ArrayList<String>();
+    private CoalescingBufferProcessor processor;
+
+    @Before
+    public void beforeEveryTest() {
+        processor = new CoalescingBufferProcessor(executor, 2);
+    }
+
+    @Test
+    public void shouldSubmitASingleDrainForABufferThatBecomesDirty() {
+        CoalescingBufferProcessor.Registration<String, String> registration = register();
+
+        registration.offer("VOD", "VOD 1");
+        registration.offer("BP", "BP 1");
+        registration.offer("VOD", "VOD 2");
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals("[VOD 2, BP 1 end]", values.toString());
+        assertEquals(1, registration.drainCount());
+    }
+
+    @Test
+    public void shouldNotDrainABufferThatHasNotBeenOfferedTo() {
+        register();
+        executor.runAll();
+
+        assertEquals(0, processor.drainCount());
+    }
+
+    @Test
+    public void shouldSubmitAgainOnceTheBufferHasBeenDrained() {
+        CoalescingBufferProcessor.Registration<String, String> registration = register();
+
+        registration.offer("VOD", "VOD 1");
+        executor.runAll();
+        registration.offer("VOD", "VOD 2");
+        executor.runAll();
+
+        assertEquals("[VOD 1 end, VOD 2 end]", values.toString());
+        assertEquals(2, registration.drainCount());
+    }
+
+    @Test
+    public void shouldTakeTurnsBetweenBuffersWhenADrainIsLimited() {
+        CoalescingBufferProcessor.Registration<String, String> first = register();
+        CoalescingBufferProcessor.Registration<String, String> second = register();
+
+        for (int i = 0; i < 4; i++) {
+            first.offer("FIRST " + i);
+        }
+        second.offer("SECOND 0");
+
+        executor.runAll();
+        assertEquals("[FIRST 0, FIRST 1 end, SECOND 0 end, FIRST 2, FIRST 3 end]", values.toString());
+        assertEquals(3, processor.drainCount());
+    }
+
+    @Test
+    public void shouldUseTheLimitGivenForTheBuffer() {
+        CoalescingBufferProcessor.Registration<String, String> registration =
+                processor.register(new CoalescingRingBuffer<String, String>(16), new RecordingHandler(values), 3);
+
+        for (int i = 0; i < 4; i++) {
+            registration.offer("VALUE " + i);
+        }
+        executor.runAll();
+
+        assertEquals("[VALUE 0, VALUE 1, VALUE 2 end, VALUE 3 end]", values.toString());
+    }
+
+    @Test
+    public void shouldDrainValuesOfferedToTheBufferDirectlyWhenScheduled() {
+        CoalescingBufferProcessor.Registration<String, String> registration = register();
+
+        registration.buffer().offer("VOD", "VOD 1");
+        assertTrue(executor.tasks.isEmpty());
+
+        registration.schedule();
+        executor.runAll();
+        assertEquals("[VOD 1 end]", values.toString());
+    }
+
+    @Test
+    public void shouldNeverDrainABufferOnTwoThreadsAtOnce() throws Exception {
+        final int numberOfBuffers = 50;
+        final int numberOfUpdates = 20000;
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        CoalescingBufferProcessor processor = new CoalescingBufferProcessor(workers, 16);
+
+        final AtomicBoolean concurrentDrain = new AtomicBoolean(false);
+        final long[] lastUpdates = new long[numberOfBuffers];
+        List<CoalescingBufferProcessor.Registration<Integer, long[]>> registrations = new ArrayList<CoalescingBufferProcessor.Registration<Integer, long[]>>();
+
+        for (int i = 0; i < numberOfBuffers; i++) {
+            final AtomicBoolean draining = new AtomicBoolean(false);
+            registrations.add(processor.register(new CoalescingRingBuffer<Integer, long[]>(64), new ValueHandler<Integer, long[]>() {
+                @Override
+                public void onValue(Integer key, long[] update, boolean endOfBatch) {
+                    if (!draining.compareAndSet(false, true)) {
+                        concurrentDrain.set(true);
+                    }
+
+                    int buffer = (int) update[0];
+                    if (update[1] < lastUpdates[buffer]) {
+                        concurrentDrain.set(true);
+                    }
+                    lastUpdates[buffer] = update[1];
+
+                    draining.set(false);
+                }
+            }));
+        }
+
+        for (long update = 1; update <= numberOfUpdates; update++) {
+            int buffer = (int) (update % numberOfBuffers);
+            while (!registrations.get(buffer).offer(0, new long[] {buffer, update})) {
+                Thread.yield();
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (int buffer = 0; buffer < numberOfBuffers; buffer++) {
+            long expected = numberOfUpdates - numberOfBuffers + (buffer == 0 ? numberOfBuffers : buffer);
+            while (lastUpdatesOf(registrations.get(buffer), lastUpdates, buffer) != expected && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(expected, lastUpdatesOf(registrations.get(buffer), lastUpdates, buffer));
+        }
+
+        workers.shutdown();
+        assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+        assertFalse(concurrentDrain.get());
+    }
+
+    private long lastUpdatesOf(CoalescingBufferProcessor.Registration<Integer, long[]> registration, long[] lastUpdates, int buffer) {
+        registration.drainCount(); // a volatile read so we see what the last drain of the buffer wrote
+        return lastUpdates[buffer];
+    }
+
+    private CoalescingBufferProcessor.Registration<String, String> register() {
+        return processor.register(new CoalescingRingBuffer<String, String>(16), new RecordingHandler(values));
+    }
+
+}
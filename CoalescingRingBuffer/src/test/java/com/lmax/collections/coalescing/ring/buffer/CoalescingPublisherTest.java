@@ -0,0 +1,270 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CoalescingPublisherTest {
+
+    private static final Executor CALLER_RUNS = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class RecordingSubscriber implements CoalescingPublisher.Subscriber<String> {
+        private final List<String> events = new ArrayList<String>();
+        private final long initialRequest;
+        private CoalescingPublisher.Subscription subscription;
+
+        private RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(CoalescingPublisher.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+            events.add("subscribed");
+        }
+
+        @Override
+        public void onNext(String value) {
+            events.add(value);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            events.add(error.getClass().getSimpleName());
+        }
+
+        @Override
+        public void onComplete() {
+            events.add("complete");
+        }
+    }
+
+    private CoalescingPublisher<String, String> publisher;
+
+    @Before
+    public void beforeEveryTest() {
+        publisher = new CoalescingPublisher<String, String>(new CoalescingRingBuffer<String, String>(16), CALLER_RUNS);
+    }
+
+    @Test
+    public void shouldCollapseValuesUntilTheSubscriberRequestsThem() {
+        RecordingSubscriber subscriber = subscribe(0);
+
+        publisher.offer("VOD", "VOD 1");
+        publisher.offer("BP", "BP 1");
+        publisher.offer("VOD", "VOD 2");
+        assertEquals("[subscribed]", subscriber.events.toString());
+
+        subscriber.subscription.request(10);
+        assertEquals("[subscribed, VOD 2, BP 1]", subscriber.events.toString());
+    }
+
+    @Test
+    public void shouldDeliverNoMoreValuesThanRequested() {
+        RecordingSubscriber subscriber = subscribe(0);
+        publisher.offer("VOD", "VOD 1");
+        publisher.offer("BP", "BP 1");
+        publisher.offer("RDS", "RDS 1");
+
+        subscriber.subscription.request(2);
+        assertEquals("[subscribed, VOD 1, BP 1]", subscriber.events.toString());
+
+        publisher.offer("RDS", "RDS 2");
+        subscriber.subscription.request(1);
+        assertEquals("[subscribed, VOD 1, BP 1, RDS 2]", subscriber.events.toString());
+    }
+
+    @Test
+    public void shouldDeliverOffersStraightAwayWhileThereIsDemand() {
+        RecordingSubscriber subscriber = subscribe(2);
+
+        publisher.offer("VOD", "VOD 1");
+        publisher.offer("CONTROL");
+        publisher.offer("BP", "BP 1");
+
+        assertEquals("[subscribed, VOD 1, CONTROL]", subscriber.events.toString());
+    }
+
+    @Test
+    public void shouldNotDeliverBeforeOnSubscribeReturns() {
+        publisher.offer("VOD", "VOD 1");
+
+        RecordingSubscriber subscriber = subscribe(1);
+        assertEquals("[subscribed, VOD 1]", subscriber.events.toString());
+    }
+
+    @Test
+    public void shouldStopDeliveringOnceCancelled() {
+        RecordingSubscriber subscriber = subscribe(10);
+        publisher.offer("VOD", "VOD 1");
+
+        subscriber.subscription.cancel();
+        publisher.offer("VOD", "VOD 2");
+        subscriber.subscription.request(1);
+
+        assertEquals("[subscribed, VOD 1]", subscriber.events.toString());
+        assertTrue(publisher.isCancelled());
+    }
+
+    @Test
+    public void shouldFailTheSubscriptionOnANonPositiveRequest() {
+        RecordingSubscriber subscriber = subscribe(0);
+
+        subscriber.subscription.request(0);
+        publisher.offer("VOD", "VOD 1");
+        subscriber.subscription.request(1);
+
+        assertEquals("[subscribed, IllegalArgumentException]", subscriber.events.toString());
+    }
+
+    @Test
+    public void shouldRejectASecondSubscriber() {
+        subscribe(0);
+        RecordingSubscriber second = subscribe(0);
+
+        assertEquals("[subscribed, IllegalStateException]", second.events.toString());
+    }
+
+    @Test
+    public void shouldCompleteOnceTheValuesAlreadyOfferedAreDelivered() {
+        RecordingSubscriber subscriber = subscribe(0);
+        publisher.offer("VOD", "VOD 1");
+
+        publisher.complete();
+        assertEquals("[subscribed]", subscriber.events.toString());
+
+        subscriber.subscription.request(1);
+        assertEquals("[subscribed, VOD 1, complete]", subscriber.events.toString());
+    }
+
+    @Test
+    public void shouldRefuseOffersOnceCompleted() {
+        RecordingSubscriber subscriber = subscribe(0);
+        publisher.offer("VOD", "VOD 1");
+
+        publisher.complete();
+        assertFalse(publisher.offer("VOD", "VOD 2"));
+        assertFalse(publisher.offer("BP", "BP 1"));
+        assertFalse(publisher.offer("CONTROL"));
+
+        subscriber.subscription.request(10);
+        assertEquals("[subscribed, VOD 1, complete]", subscriber.events.toString());
+    }
+
+    @Test
+    public void shouldDeliverAnOfferMadeWhileDemandWasAlreadySignalled() {
+        RecordingSubscriber subscriber = subscribe(0);
+        publisher.offer("VOD", "VOD 1");
+        publisher.offer("BP", "BP 1");
+
+        subscriber.subscription.request(1);
+        publisher.offer("RDS", "RDS 1");
+        subscriber.subscription.request(2);
+
+        assertEquals("[subscribed, VOD 1, BP 1, RDS 1]", subscriber.events.toString());
+    }
+
+    @Test
+    public void shouldTreatAnOverflowingRequestAsUnbounded() {
+        RecordingSubscriber subscriber = subscribe(Long.MAX_VALUE);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        for (int i = 0; i < 3; i++) {
+            publisher.offer("VALUE " + i);
+        }
+        assertEquals("[subscribed, VALUE 0, VALUE 1, VALUE 2]", subscriber.events.toString());
+    }
+
+    @Test
+    public void shouldDeliverTheLatestValueOfEveryKeyFromAnExecutor() throws Exception {
+        final int numberOfKeys = 100;
+        final int numberOfUpdates = 200000;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CoalescingPublisher<Integer, int[]> publisher = new CoalescingPublisher<Integer, int[]>(new CoalescingRingBuffer<Integer, int[]>(256), executor);
+
+        final int[] lastUpdates = new int[numberOfKeys];
+        final boolean[] orderPreserved = {true};
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        publisher.subscribe(new CoalescingPublisher.Subscriber<int[]>() {
+            private CoalescingPublisher.Subscription subscription;
+
+            @Override
+            public void onSubscribe(CoalescingPublisher.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(int[] update) {
+                // the ring buffer may deliver a value twice if the consumer claims it while the producer is collapsing into it
+                orderPreserved[0] &= update[1] >= lastUpdates[update[0]];
+                lastUpdates[update[0]] = update[1];
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        for (int update = 1; update <= numberOfUpdates; update++) {
+            int key = update % numberOfKeys;
+            while (!publisher.offer(key, new int[] {key, update})) {
+                Thread.yield();
+            }
+        }
+        publisher.complete();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertTrue(orderPreserved[0]);
+        for (int key = 0; key < numberOfKeys; key++) {
+            assertEquals(numberOfUpdates - numberOfKeys + (key == 0 ? numberOfKeys : key), lastUpdates[key]);
+        }
+    }
+
+    private RecordingSubscriber subscribe(long initialRequest) {
+        RecordingSubscriber subscriber = new RecordingSubscriber(initialRequest);
+        publisher.subscribe(subscriber);
+        return subscriber;
+    }
+
+}
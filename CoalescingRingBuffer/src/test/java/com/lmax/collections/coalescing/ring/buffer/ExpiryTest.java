@@ -0,0 +1,171 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.lmax.collections.coalescing.ring.buffer.CoalescingRingBuffer.NO_DEADLINE;
+import static org.junit.Assert.*;
+
+public class ExpiryTest {
+
+    private static final class ManualClock implements Clock {
+        private long nanoTime = 1000;
+
+        @Override
+        public long nanoTime() {
+            return nanoTime;
+        }
+
+        private void advance(long millis) {
+            nanoTime += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        private long in(long millis) {
+            return nanoTime + TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private static final class RecordingExpiryHandler implements ExpiryHandler<String, String> {
+        private final List<String> expired = new ArrayList<String>();
+
+        @Override
+        public void onExpired(String key, String value) {
+            expired.add(key + "=" + value);
+        }
+    }
+
+    private final ManualClock clock = new ManualClock();
+    private final RecordingExpiryHandler expiryHandler = new RecordingExpiryHandler();
+    private CoalescingRingBuffer<String, String> buffer;
+
+    @Before
+    public void beforeEveryTest() {
+        buffer = new CoalescingRingBuffer<String, String>(16, new BufferInstrumentation(true, 0), clock, expiryHandler);
+    }
+
+    @Test
+    public void shouldPollValuesBeforeTheirDeadline() {
+        buffer.offerWithDeadline("VOD", "VOD 1", clock.in(10));
+        buffer.offerWithDeadline("BP", "BP 1", NO_DEADLINE);
+        clock.advance(10);
+
+        assertEquals("[VOD 1, BP 1]", poll().toString());
+        assertEquals(0, buffer.expiredCount());
+    }
+
+    @Test
+    public void shouldDropCountAndReportValuesPastTheirDeadline() {
+        buffer.offerWithDeadline("VOD", "VOD 1", clock.in(10));
+        buffer.offerWithDeadline("BP", "BP 1", clock.in(20));
+        buffer.offer("RDS", "RDS 1");
+        buffer.offerWithDeadline("STALE", clock.in(10));
+        clock.advance(15);
+
+        assertEquals("[BP 1, RDS 1]", poll().toString());
+        assertEquals(2, buffer.expiredCount());
+        assertEquals("[VOD=VOD 1, null=STALE]", expiryHandler.expired.toString());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void shouldTakeTheDeadlineOfTheNewestCoalescedValue() {
+        buffer.offerWithDeadline("VOD", "VOD 1", clock.in(10));
+        clock.advance(5);
+        buffer.offerWithDeadline("VOD", "VOD 2", clock.in(10));
+        clock.advance(10);
+
+        assertEquals("[VOD 2]", poll().toString());
+        assertEquals(0, buffer.expiredCount());
+    }
+
+    @Test
+    public void shouldMarkTheLastDeliveredValueAsTheEndOfTheBatch() {
+        buffer.offerWithDeadline("VOD", "VOD 1", NO_DEADLINE);
+        buffer.offerWithDeadline("BP", "BP 1", clock.in(10));
+        clock.advance(20);
+
+        final List<String> batchEnds = new ArrayList<String>();
+        int drained = buffer.drain(new ValueHandler<String, String>() {
+            @Override
+            public void onValue(String key, String value, boolean endOfBatch) {
+                if (endOfBatch) {
+                    batchEnds.add(value);
+                }
+            }
+        });
+
+        assertEquals(1, drained);
+        assertEquals("[VOD 1]", batchEnds.toString());
+        assertEquals(1, buffer.expiredCount());
+    }
+
+    @Test
+    public void shouldNotRecordABatchWhenEveryValueExpired() {
+        buffer.offerWithDeadline("VOD", "VOD 1", clock.in(10));
+        clock.advance(20);
+
+        assertEquals(0, buffer.poll(new ArrayList<String>()));
+        assertEquals(0, buffer.instrumentation().batchSize().count());
+    }
+
+    @Test
+    public void shouldOnlyRecordTheLatencyOfDeliveredValues() {
+        buffer.offerWithDeadline("VOD", "VOD 1", clock.in(10));
+        buffer.offer("BP", "BP 1");
+        clock.advance(20);
+        poll();
+
+        assertEquals(1, buffer.instrumentation().offerToPollLatency().count());
+    }
+
+    @Test
+    public void shouldNotTreatAPrimitiveValueAsADeadline() {
+        CoalescingRingBuffer<Long, Long> prices = new CoalescingRingBuffer<Long, Long>(16, null, clock, null);
+        Long key = 1L;
+        long price = 1000L;
+
+        prices.offer(key, price);
+        prices.offer(key, price + 1);
+
+        List<Long> bucket = new ArrayList<Long>();
+        prices.poll(bucket);
+        assertEquals("[1001]", bucket.toString());
+        assertEquals(0, prices.expiredCount());
+    }
+
+    @Test
+    public void shouldShowTheExpiredCountInTheViewer() {
+        buffer.offerWithDeadline("VOD", "VOD 1", clock.in(10));
+        buffer.offerWithDeadline("BP", "BP 1", clock.in(10));
+        clock.advance(20);
+        poll();
+
+        CoalescingRingBufferViewer viewer = new CoalescingRingBufferViewer(buffer);
+        assertEquals(2, viewer.getExpiredCount());
+    }
+
+    private List<String> poll() {
+        List<String> bucket = new ArrayList<String>();
+        buffer.poll(bucket);
+        return bucket;
+    }
+
+}
@@ -22,6 +22,7 @@ import java.util.Collection;
 import java.util.List;
 
 import static com.lmax.collections.coalescing.ring.buffer.MarketSnapshot.createMarketSnapshot;
+import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertSame;
 
@@ -201,6 +202,42 @@ public class FunctionalTest {
         assertIsEmpty();
     }
 
+    @Test
+    public void shouldDrainKeysAndValuesMarkingTheEndOfTheBatch() {
+        addValue(BP_SNAPSHOT);
+        addKeyAndValue(VOD_SNAPSHOT_1);
+        addKeyAndValue(VOD_SNAPSHOT_2);
+
+        RecordingHandler handler = new RecordingHandler();
+        assertEquals(2, buffer.drain(handler));
+
+        assertEquals(asList(null, VOD_SNAPSHOT_2.getInstrumentId()), handler.keys);
+        assertEquals(asList(BP_SNAPSHOT, VOD_SNAPSHOT_2), handler.values);
+        assertEquals(asList(false, true), handler.endOfBatches);
+
+        assertIsEmpty();
+    }
+
+    @Test
+    public void shouldDrainOnlyTheMaximumNumberOfRequestedItems() {
+        addValue(BP_SNAPSHOT);
+        addValue(VOD_SNAPSHOT_1);
+        addValue(VOD_SNAPSHOT_2);
+
+        RecordingHandler handler = new RecordingHandler();
+        assertEquals(2, buffer.drain(handler, 2));
+        assertEquals(asList(BP_SNAPSHOT, VOD_SNAPSHOT_1), handler.values);
+        assertEquals(asList(false, true), handler.endOfBatches);
+
+        handler = new RecordingHandler();
+        assertEquals(1, buffer.drain(handler, 1));
+        assertEquals(asList(VOD_SNAPSHOT_2), handler.values);
+        assertEquals(asList(true), handler.endOfBatches);
+
+        assertEquals(0, buffer.drain(new RecordingHandler()));
+        assertIsEmpty();
+    }
+
     @Test
     public void shouldCountRejections() throws Exception {
         CoalescingRingBuffer<Integer, Object> buffer = new CoalescingRingBuffer<Integer, Object>(2);
@@ -222,6 +259,26 @@ public class FunctionalTest {
         assertEquals(2, buffer.rejectionCount());
     }
 
+    @Test
+    public void shouldCountCoalescedAppendedAndNonCollapsibleOffers() throws Exception {
+        CoalescingRingBuffer<Integer, Object> buffer = new CoalescingRingBuffer<Integer, Object>(4);
+
+        buffer.offer(1, new Object());
+        buffer.offer(1, new Object());
+        buffer.offer(2, new Object());
+        buffer.offer(new Object());
+        buffer.poll(new ArrayList<Object>());
+        buffer.offer(1, new Object());
+
+        assertEquals(1, buffer.coalescedCount());
+        assertEquals(3, buffer.appendedCount());
+        assertEquals(1, buffer.nonCollapsibleCount());
+
+        CoalescingRingBufferViewer viewer = new CoalescingRingBufferViewer(buffer);
+        assertEquals(0.25, viewer.getHitRatio(), 0);
+        assertEquals(1.25, viewer.getCompressionRatio(), 0);
+    }
+
     @SuppressWarnings("RedundantStringConstructorCall")
     @Test
     public void shouldUseObjectEqualityToCompareKeys() throws Exception {
@@ -233,6 +290,71 @@ public class FunctionalTest {
         assertEquals(1, buffer.size());
     }
 
+    @Test
+    public void shouldUpdateValuesWithEqualKeysWhenHashCodesCollide() throws Exception {
+        CoalescingRingBuffer<Object, String> buffer = new CoalescingRingBuffer<Object, String>(4);
+        CollidingKey first = new CollidingKey(1);
+        CollidingKey second = new CollidingKey(2);
+
+        buffer.offer(first, "first 1");
+        buffer.offer(second, "second 1");
+        buffer.offer(new CollidingKey(1), "first 2");
+        buffer.offer(new CollidingKey(2), "second 2");
+
+        List<String> values = new ArrayList<String>();
+        assertEquals(2, buffer.poll(values));
+        assertEquals("first 2", values.get(0));
+        assertEquals("second 2", values.get(1));
+    }
+
+    @Test
+    public void shouldUpdateValuesWithEqualKeysAfterWrappingAround() throws Exception {
+        buffer = createBuffer(2);
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+
+        for (int i = 0; i < 5; i++) {
+            addKeyAndValue(BP_SNAPSHOT);
+            addKeyAndValue(VOD_SNAPSHOT_1);
+            addKeyAndValue(VOD_SNAPSHOT_2);
+
+            snapshots.clear();
+            assertEquals(2, buffer.poll(snapshots));
+            assertSame(BP_SNAPSHOT, snapshots.get(0));
+            assertSame(VOD_SNAPSHOT_2, snapshots.get(1));
+        }
+    }
+
+    private static final class CollidingKey {
+        private final int id;
+
+        private CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object instanceof CollidingKey && ((CollidingKey) object).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    private static final class RecordingHandler implements ValueHandler<Long, MarketSnapshot> {
+        private final List<Long> keys = new ArrayList<Long>();
+        private final List<MarketSnapshot> values = new ArrayList<MarketSnapshot>();
+        private final List<Boolean> endOfBatches = new ArrayList<Boolean>();
+
+        @Override
+        public void onValue(Long key, MarketSnapshot value, boolean endOfBatch) {
+            keys.add(key);
+            values.add(value);
+            endOfBatches.add(endOfBatch);
+        }
+    }
+
     private void addKeyAndValue(MarketSnapshot snapshot) {
         assertTrue(buffer.offer(snapshot.getInstrumentId(), snapshot));
     }
@@ -0,0 +1,120 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void shouldBeEmptyBeforeRecording() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.valueAtPercentile(99));
+        assertEquals(0.0, histogram.mean(), 0);
+    }
+
+    @Test
+    public void shouldRecordSmallValuesExactly() {
+        Histogram histogram = new Histogram();
+
+        for (int value = 1; value <= 10; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(10, histogram.count());
+        assertEquals(5, histogram.valueAtPercentile(50));
+        assertEquals(9, histogram.valueAtPercentile(90));
+        assertEquals(10, histogram.valueAtPercentile(100));
+        assertEquals(5.5, histogram.mean(), 0);
+    }
+
+    @Test
+    public void shouldRecordLargeValuesWithinThreePercent() {
+        Histogram histogram = new Histogram();
+
+        for (long value = 1000; value <= 1000000000L; value *= 10) {
+            histogram.record(value);
+            long recorded = histogram.valueAtPercentile(100);
+
+            assertTrue(recorded + " should be close to " + value, Math.abs(recorded - value) <= value * 0.03);
+        }
+
+        assertEquals(1000000000L, histogram.max());
+    }
+
+    @Test
+    public void shouldMapEveryBucketToAValueInIt() {
+        for (long value : new long[] {0, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = Histogram.indexOf(value);
+
+            assertTrue(value <= Histogram.highestEquivalentValue(index));
+            assertEquals(index, Histogram.indexOf(Histogram.highestEquivalentValue(index)));
+        }
+    }
+
+    @Test
+    public void shouldKeepEveryValueWithinAThirtySecondOfItsSize() {
+        Random random = new Random(1);
+
+        for (int i = 0; i < 1000000; i++) {
+            long value = i < 100000 ? i : (random.nextLong() >>> 1) >>> random.nextInt(63);
+            long highest = Histogram.highestEquivalentValue(Histogram.indexOf(value));
+
+            assertTrue(highest + " is below " + value, highest >= value);
+            assertTrue(highest + " is too far from " + value, highest - value <= value / 32);
+        }
+    }
+
+    @Test
+    public void shouldRecordNegativeValuesAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+
+        assertEquals(0, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    public void shouldRecordOfferToPollLatencyAndBatchSizesOfAnInstrumentedBuffer() {
+        BufferInstrumentation instrumentation = new BufferInstrumentation();
+        CoalescingRingBuffer<Integer, String> buffer = new CoalescingRingBuffer<Integer, String>(8, instrumentation);
+
+        buffer.offer(1, "a");
+        buffer.offer(2, "b");
+        buffer.offer(1, "c");
+        buffer.poll(new ArrayList<String>());
+        buffer.poll(new ArrayList<String>());
+
+        buffer.offer("d");
+        buffer.poll(new ArrayList<String>());
+
+        assertEquals(3, instrumentation.offerToPollLatency().count());
+        assertEquals(2, instrumentation.batchSize().count());
+        assertEquals(2, instrumentation.batchSize().max());
+
+        CoalescingRingBufferViewer viewer = new CoalescingRingBufferViewer(buffer);
+        assertTrue(viewer.isInstrumented());
+        assertEquals(1.5, viewer.getMeanBatchSize(), 0);
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class HotKeysTest {
+
+    @Test
+    public void shouldReportKeysMostFrequentFirst() {
+        HotKeys hotKeys = new HotKeys(3);
+
+        record(hotKeys, "VOD", 2);
+        record(hotKeys, "BP", 5);
+        record(hotKeys, "RBS", 1);
+
+        assertArrayEquals(new String[] {"BP=5", "VOD=2", "RBS=1"}, hotKeys.snapshot());
+    }
+
+    @Test
+    public void shouldReplaceTheLeastFrequentKeyWhenFull() {
+        HotKeys hotKeys = new HotKeys(2);
+
+        record(hotKeys, "VOD", 3);
+        record(hotKeys, "BP", 1);
+        record(hotKeys, "RBS", 1);
+
+        assertArrayEquals(new String[] {"VOD=3", "RBS=2"}, hotKeys.snapshot());
+    }
+
+    @Test
+    public void shouldTrackHotKeysOfAnInstrumentedBuffer() {
+        BufferInstrumentation instrumentation = new BufferInstrumentation(false, 2);
+        CoalescingRingBuffer<String, Object> buffer = new CoalescingRingBuffer<String, Object>(8, instrumentation);
+
+        buffer.offer("VOD", new Object());
+        buffer.offer("BP", new Object());
+        buffer.offer("VOD", new Object());
+
+        assertArrayEquals(new String[] {"VOD=2", "BP=1"}, new CoalescingRingBufferViewer(buffer).getHotKeys());
+    }
+
+    private void record(HotKeys hotKeys, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            hotKeys.record(key);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InPlaceFunctionalTest {
+
+    private static final SlotFactory<MarketSnapshot> SNAPSHOT_FACTORY = new SlotFactory<MarketSnapshot>() {
+        @Override
+        public MarketSnapshot newInstance() {
+            return new MarketSnapshot();
+        }
+    };
+
+    private InPlaceCoalescingRingBuffer<Long, MarketSnapshot> buffer;
+    private final List<String> drained = new ArrayList<String>();
+    private final List<MarketSnapshot> instances = new ArrayList<MarketSnapshot>();
+
+    private final ValueHandler<Long, MarketSnapshot> handler = new ValueHandler<Long, MarketSnapshot>() {
+        @Override
+        public void onValue(Long key, MarketSnapshot value, boolean endOfBatch) {
+            drained.add(key + "=" + value);
+            instances.add(value);
+        }
+    };
+
+    @Before
+    public void beforeEveryTest() {
+        buffer = new InPlaceCoalescingRingBuffer<Long, MarketSnapshot>(2, SNAPSHOT_FACTORY);
+    }
+
+    @Test
+    public void shouldRewritePendingValueInPlace() {
+        write(buffer.claim(1L), 1, 3, 4);
+        buffer.publish();
+        write(buffer.claim(2L), 2, 7, 8);
+        buffer.publish();
+        write(buffer.claim(1L), 1, 5, 6);
+        buffer.publish();
+
+        assertEquals(2, buffer.size());
+        assertEquals(2, buffer.drain(handler));
+        assertEquals("[1=1: 5/6, 2=2: 7/8]", drained.toString());
+        assertEquals(1, buffer.coalescedCount());
+        assertEquals(2, buffer.appendedCount());
+    }
+
+    @Test
+    public void shouldNotRewriteValuesAlreadyDrained() {
+        write(buffer.claim(1L), 1, 3, 4);
+        buffer.publish();
+        buffer.drain(handler);
+
+        write(buffer.claim(1L), 1, 5, 6);
+        buffer.publish();
+        buffer.drain(handler);
+
+        assertEquals("[1=1: 3/4, 1=1: 5/6]", drained.toString());
+    }
+
+    @Test
+    public void shouldNotCollapseValuesWithoutKeys() {
+        write(buffer.claim(), 1, 3, 4);
+        buffer.publish();
+        write(buffer.claim(), 1, 5, 6);
+        buffer.publish();
+
+        buffer.drain(handler);
+        assertEquals("[null=1: 3/4, null=1: 5/6]", drained.toString());
+        assertEquals(2, buffer.nonCollapsibleCount());
+    }
+
+    @Test
+    public void shouldRejectClaimsWhenFull() {
+        buffer.claim(1L);
+        buffer.publish();
+        buffer.claim(2L);
+        buffer.publish();
+
+        assertTrue(buffer.isFull());
+        assertNull(buffer.claim(3L));
+        assertNotNull(buffer.claim(2L));
+        buffer.publish();
+        assertEquals(1, buffer.rejectionCount());
+    }
+
+    @Test
+    public void shouldReuseTheSameValuesAfterWrapping() {
+        for (long key = 0; key < 8; key++) {
+            write(buffer.claim(key), key, key, key);
+            buffer.publish();
+            buffer.drain(handler);
+        }
+
+        assertSame(instances.get(0), instances.get(2));
+        assertSame(instances.get(1), instances.get(7));
+        assertNotSame(instances.get(0), instances.get(1));
+    }
+
+    @Test
+    public void shouldDrainUpToMaxItems() {
+        write(buffer.claim(1L), 1, 3, 4);
+        buffer.publish();
+        write(buffer.claim(2L), 2, 7, 8);
+        buffer.publish();
+
+        assertEquals(1, buffer.drain(handler, 1));
+        assertEquals(1, buffer.drain(handler, 1));
+        assertEquals(0, buffer.drain(handler, 1));
+        assertEquals("[1=1: 3/4, 2=2: 7/8]", drained.toString());
+        assertTrue(buffer.isEmpty());
+    }
+
+    private static void write(MarketSnapshot snapshot, long instrumentId, long bid, long ask) {
+        snapshot.setInstrumentId(instrumentId);
+        snapshot.setBestBid(bid);
+        snapshot.setBestAsk(ask);
+    }
+
+}
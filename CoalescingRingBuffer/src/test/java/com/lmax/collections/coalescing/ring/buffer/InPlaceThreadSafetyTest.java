@@ -0,0 +1,107 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class InPlaceThreadSafetyTest extends ProducerConsumerHarness<MarketSnapshot> {
+
+    private static final int NUMBER_OF_INSTRUMENTS = 1000;
+    private static final int NUMBER_OF_UPDATES = 5000000;
+    private static final long POISON_PILL = -1;
+
+    private static final SlotFactory<MarketSnapshot> FACTORY = new SlotFactory<MarketSnapshot>() {
+        @Override
+        public MarketSnapshot newInstance() {
+            return new MarketSnapshot();
+        }
+    };
+
+    private final InPlaceCoalescingRingBuffer<Long, MarketSnapshot> buffer = new InPlaceCoalescingRingBuffer<Long, MarketSnapshot>(1 << 12, FACTORY);
+    private final long[] lastPrices = new long[NUMBER_OF_INSTRUMENTS];
+    private long tornReads;
+
+    // the producer rewrites a slot once the drain has returned, so each value is checked as it is drained
+    private final ValueHandler<Long, MarketSnapshot> handler = new ValueHandler<Long, MarketSnapshot>() {
+        @Override
+        public void onValue(Long key, MarketSnapshot snapshot, boolean endOfBatch) {
+            if (snapshot.getInstrumentId() != key) {
+                tornReads++;
+            }
+            deliver(0, snapshot);
+        }
+    };
+
+    @Override
+    protected void produce(int producerId) {
+        for (int update = 1; update <= NUMBER_OF_UPDATES; update++) {
+            put(update % NUMBER_OF_INSTRUMENTS, update);
+        }
+
+        put(POISON_PILL, POISON_PILL);
+    }
+
+    // bid and ask are always written equal so the consumer can detect a value read while it was being written
+    private void put(long key, long price) {
+        MarketSnapshot snapshot;
+        while ((snapshot = buffer.claim(key)) == null) {
+            Thread.yield();
+        }
+
+        snapshot.setInstrumentId(key);
+        snapshot.setBestBid(price);
+        snapshot.setBestAsk(price);
+        buffer.publish();
+    }
+
+    @Override
+    protected void poll(int consumerId, List<MarketSnapshot> bucket, boolean limitedRead) {
+        if (limitedRead) {
+            buffer.drain(handler, 1);
+        }
+        else {
+            buffer.drain(handler);
+        }
+    }
+
+    @Override
+    protected boolean isPoisonPill(MarketSnapshot snapshot) {
+        return snapshot.getInstrumentId() == POISON_PILL;
+    }
+
+    @Override
+    protected void onValue(int consumerId, MarketSnapshot snapshot) {
+        if (snapshot.getBid() != snapshot.getAsk()) {
+            tornReads++;
+        }
+        lastPrices[(int) snapshot.getInstrumentId()] = snapshot.getBid();
+    }
+
+    @Test
+    public void shouldSeeLastPricesWithoutTornReads() throws InterruptedException {
+        runProducersAndConsumers();
+
+        assertEquals(0, tornReads);
+        for (int instrument = 0; instrument < NUMBER_OF_INSTRUMENTS; instrument++) {
+            long lastUpdate = NUMBER_OF_UPDATES - ((NUMBER_OF_UPDATES - instrument) % NUMBER_OF_INSTRUMENTS);
+            assertEquals("price for instrument " + instrument + ":", lastUpdate, lastPrices[instrument]);
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KeyAddressedFunctionalTest {
+
+    private KeyAddressedCoalescingBuffer<String, String> buffer;
+
+    @Before
+    public void beforeEveryTest() {
+        buffer = new KeyAddressedCoalescingBuffer<String, String>(3, 2);
+    }
+
+    @Test
+    public void shouldPollDirtyKeysInTheOrderTheyBecamePending() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        buffer.offer("CONTROL");
+        buffer.offer("VOD", "VOD 2");
+
+        assertEquals(3, buffer.size());
+        assertEquals("[VOD 2, BP 1, CONTROL]", poll(Integer.MAX_VALUE).toString());
+        assertTrue(buffer.isEmpty());
+        assertEquals(1, buffer.coalescedCount());
+        assertEquals(2, buffer.appendedCount());
+        assertEquals(1, buffer.nonCollapsibleCount());
+    }
+
+    @Test
+    public void shouldPollOnlyKeysOfferedSinceTheLastPoll() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        poll(Integer.MAX_VALUE);
+
+        buffer.offer("BP", "BP 2");
+        assertEquals("[BP 2]", poll(Integer.MAX_VALUE).toString());
+    }
+
+    @Test
+    public void shouldNeverRejectKeysThatHaveASlot() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(buffer.offer("VOD", "VOD " + i));
+            assertTrue(buffer.offer("BP", "BP " + i));
+            assertTrue(buffer.offer("RDS", "RDS " + i));
+        }
+
+        assertFalse(buffer.offer("BT", "BT 1"));
+        assertEquals(1, buffer.rejectionCount());
+        assertEquals("[VOD 99, BP 99, RDS 99]", poll(Integer.MAX_VALUE).toString());
+    }
+
+    @Test
+    public void shouldRejectValuesWithoutKeysOnceTheirCapacityIsUsed() {
+        buffer.offer("VOD", "VOD 1");
+        assertTrue(buffer.offer("CONTROL 1"));
+        assertTrue(buffer.offer("CONTROL 2"));
+
+        assertTrue(buffer.isFull());
+        assertFalse(buffer.offer("CONTROL 3"));
+        assertTrue(buffer.offer("VOD", "VOD 2"));
+
+        assertEquals("[VOD 2, CONTROL 1]", poll(2).toString());
+        assertFalse(buffer.isFull());
+        assertTrue(buffer.offer("CONTROL 4"));
+        assertEquals("[CONTROL 2, CONTROL 4]", poll(Integer.MAX_VALUE).toString());
+    }
+
+    @Test
+    public void shouldSkipAKeyQueuedAgainAfterItsValueWasTaken() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        assertEquals("[VOD 1]", poll(1).toString());
+
+        buffer.offer("VOD", "VOD 2");
+        buffer.offer("VOD", "VOD 3");
+        assertEquals("[BP 1, VOD 3]", poll(Integer.MAX_VALUE).toString());
+        assertEquals(3, buffer.appendedCount());
+        assertEquals(1, buffer.coalescedCount());
+    }
+
+    @Test
+    public void shouldDrainKeysAndMarkTheLastValueAsTheEndOfBatch() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("CONTROL");
+        buffer.offer("BP", "BP 1");
+
+        final List<String> drained = new ArrayList<String>();
+        assertEquals(3, buffer.drain(new ValueHandler<String, String>() {
+            @Override
+            public void onValue(String key, String value, boolean endOfBatch) {
+                drained.add(key + "=" + value + (endOfBatch ? " end" : ""));
+            }
+        }));
+
+        assertEquals("[VOD=VOD 1, null=CONTROL, BP=BP 1 end]", drained.toString());
+    }
+
+    @Test
+    public void shouldReportTheCapacityOfKeysAndValuesWithoutKeys() {
+        assertEquals(5, buffer.capacity());
+        assertEquals(3, buffer.numberOfKeys());
+    }
+
+    private List<String> poll(int maxItems) {
+        List<String> bucket = new ArrayList<String>();
+        buffer.poll(bucket, maxItems);
+        return bucket;
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeyAddressedThreadSafetyTest extends ProducerConsumerHarness<long[]> {
+
+    private static final int NUMBER_OF_INSTRUMENTS = 100;
+    private static final int NUMBER_OF_UPDATES = 2000000;
+    private static final long POISON_PILL = -1;
+    private static final long NO_KEY = -2;
+
+    private final KeyAddressedCoalescingBuffer<Long, long[]> buffer = new KeyAddressedCoalescingBuffer<Long, long[]>(NUMBER_OF_INSTRUMENTS, 16);
+
+    private final long[] lastUpdates = new long[NUMBER_OF_INSTRUMENTS];
+    private long lastNonCollapsible;
+    private int nonCollapsibleCount;
+    private boolean orderPreserved = true;
+
+    @Override
+    protected void produce(int producerId) {
+        for (long update = 1; update <= NUMBER_OF_UPDATES; update++) {
+            if (update % 1000 == 0) {
+                put(new long[] {NO_KEY, update});
+            } else {
+                assertEquals(true, buffer.offer(update % NUMBER_OF_INSTRUMENTS, new long[] {update % NUMBER_OF_INSTRUMENTS, update}));
+            }
+        }
+
+        put(new long[] {POISON_PILL, POISON_PILL});
+    }
+
+    private void put(long[] value) {
+        while (!buffer.offer(value)) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    protected void poll(int consumerId, List<long[]> bucket, boolean limitedRead) {
+        if (limitedRead) {
+            buffer.poll(bucket, 7);
+        } else {
+            buffer.poll(bucket);
+        }
+    }
+
+    @Override
+    protected boolean isPoisonPill(long[] update) {
+        return update[0] == POISON_PILL;
+    }
+
+    @Override
+    protected void onValue(int consumerId, long[] update) {
+        if (update[0] == NO_KEY) {
+            orderPreserved &= update[1] > lastNonCollapsible;
+            lastNonCollapsible = update[1];
+            nonCollapsibleCount++;
+        } else {
+            int instrument = (int) update[0];
+            orderPreserved &= update[1] > lastUpdates[instrument];
+            lastUpdates[instrument] = update[1];
+        }
+    }
+
+    @Test
+    public void shouldSeeEveryValueWithoutAKeyAndTheLatestOfEveryKeyInOrder() throws InterruptedException {
+        runProducersAndConsumers();
+
+        assertEquals(true, orderPreserved);
+        assertEquals(NUMBER_OF_UPDATES / 1000, nonCollapsibleCount);
+        for (int instrument = 1; instrument < NUMBER_OF_INSTRUMENTS; instrument++) {
+            assertEquals(NUMBER_OF_UPDATES - NUMBER_OF_UPDATES % NUMBER_OF_INSTRUMENTS - NUMBER_OF_INSTRUMENTS + instrument, lastUpdates[instrument]);
+        }
+        assertEquals(NUMBER_OF_UPDATES - NUMBER_OF_UPDATES / 1000, buffer.appendedCount() + buffer.coalescedCount());
+    }
+
+}
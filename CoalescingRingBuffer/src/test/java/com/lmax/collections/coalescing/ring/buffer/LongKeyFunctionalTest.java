@@ -0,0 +1,110 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lmax.collections.coalescing.ring.buffer.MarketSnapshot.createMarketSnapshot;
+import static org.junit.Assert.*;
+
+public class LongKeyFunctionalTest extends FunctionalTest {
+    private final static MarketSnapshot VOD_SNAPSHOT_1 = createMarketSnapshot(1, 3, 4);
+    private final static MarketSnapshot VOD_SNAPSHOT_2 = createMarketSnapshot(1, 5, 6);
+    private final static MarketSnapshot BP_SNAPSHOT = createMarketSnapshot(2, 7, 8);
+
+    @Override
+    public CoalescingBuffer<Long, MarketSnapshot> createBuffer(int capacity) {
+        return new LongKeyCoalescingRingBuffer<MarketSnapshot>(capacity);
+    }
+
+    @Test
+    public void shouldUpdateValuesWithEqualPrimitiveKeysAndPreserveOrdering() {
+        LongKeyCoalescingRingBuffer<MarketSnapshot> buffer = new LongKeyCoalescingRingBuffer<MarketSnapshot>(4);
+
+        assertTrue(buffer.offer(VOD_SNAPSHOT_1.getInstrumentId(), VOD_SNAPSHOT_1));
+        assertTrue(buffer.offer(BP_SNAPSHOT.getInstrumentId(), BP_SNAPSHOT));
+        assertTrue(buffer.offer(VOD_SNAPSHOT_2.getInstrumentId(), VOD_SNAPSHOT_2));
+
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+        assertEquals(2, buffer.poll(snapshots));
+        assertSame(VOD_SNAPSHOT_2, snapshots.get(0));
+        assertSame(BP_SNAPSHOT, snapshots.get(1));
+    }
+
+    @Test
+    public void shouldNotCollapseValuesWithoutKeysOntoKeyZero() {
+        LongKeyCoalescingRingBuffer<MarketSnapshot> buffer = new LongKeyCoalescingRingBuffer<MarketSnapshot>(4);
+
+        assertTrue(buffer.offer(BP_SNAPSHOT));
+        assertTrue(buffer.offer(0L, VOD_SNAPSHOT_1));
+        assertTrue(buffer.offer(0L, VOD_SNAPSHOT_2));
+
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+        assertEquals(2, buffer.poll(snapshots));
+        assertSame(BP_SNAPSHOT, snapshots.get(0));
+        assertSame(VOD_SNAPSHOT_2, snapshots.get(1));
+    }
+
+    @Test
+    public void shouldUpdateValuesWithKeysThatShareABucket() {
+        LongKeyCoalescingRingBuffer<MarketSnapshot> buffer = new LongKeyCoalescingRingBuffer<MarketSnapshot>(4);
+        long otherKey = 1L << 32; // hashes to the same bucket as key 1
+
+        assertTrue(buffer.offer(1L, VOD_SNAPSHOT_1));
+        assertTrue(buffer.offer(otherKey, BP_SNAPSHOT));
+        assertTrue(buffer.offer(1L, VOD_SNAPSHOT_2));
+
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+        assertEquals(2, buffer.poll(snapshots));
+        assertSame(VOD_SNAPSHOT_2, snapshots.get(0));
+        assertSame(BP_SNAPSHOT, snapshots.get(1));
+    }
+
+    @Test
+    public void shouldDrainPrimitiveKeysToALongValueHandler() {
+        LongKeyCoalescingRingBuffer<MarketSnapshot> buffer = new LongKeyCoalescingRingBuffer<MarketSnapshot>(4);
+
+        assertTrue(buffer.offer(1000L, VOD_SNAPSHOT_1));
+        assertTrue(buffer.offer(BP_SNAPSHOT));
+
+        final List<String> drained = new ArrayList<String>();
+        assertEquals(2, buffer.drain(new LongValueHandler<MarketSnapshot>() {
+            @Override
+            public void onValue(long key, boolean hasKey, MarketSnapshot value, boolean endOfBatch) {
+                drained.add(key + " " + hasKey + " " + endOfBatch);
+            }
+        }));
+        assertEquals("[1000 true false, 0 false true]", drained.toString());
+    }
+
+    @Test
+    public void shouldCountPrimitiveKeyRejections() throws Exception {
+        LongKeyCoalescingRingBuffer<Object> buffer = new LongKeyCoalescingRingBuffer<Object>(2);
+
+        buffer.offer(1L, new Object());
+        buffer.offer(2L, new Object());
+        assertEquals(0, buffer.rejectionCount());
+
+        buffer.offer(2L, new Object());
+        assertEquals(0, buffer.rejectionCount());
+
+        buffer.offer(3L, new Object());
+        assertEquals(1, buffer.rejectionCount());
+    }
+
+}
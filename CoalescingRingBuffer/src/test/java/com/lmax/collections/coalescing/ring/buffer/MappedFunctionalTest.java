@@ -0,0 +1,224 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.lmax.collections.coalescing.ring.buffer.MarketSnapshot.createMarketSnapshot;
+import static org.junit.Assert.*;
+
+public class MappedFunctionalTest {
+    private final static MarketSnapshot VOD_SNAPSHOT_1 = createMarketSnapshot(1, 3, 4);
+    private final static MarketSnapshot VOD_SNAPSHOT_2 = createMarketSnapshot(1, 5, 6);
+    private final static MarketSnapshot BP_SNAPSHOT = createMarketSnapshot(2, 7, 8);
+
+    private File file;
+
+    // separate mappings of the same file, as the producing and consuming processes would have
+    private MappedCoalescingRingBuffer<MarketSnapshot> producer;
+    private MappedCoalescingRingBuffer<MarketSnapshot> consumer;
+
+    @Before
+    public void beforeEveryTest() throws IOException {
+        file = File.createTempFile("coalescing", ".buffer");
+        producer = open(file, 4);
+        consumer = open(file, 4);
+    }
+
+    @After
+    public void afterEveryTest() {
+        producer.close();
+        consumer.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldUpdateValuesWithEqualKeysAcrossMappings() {
+        assertTrue(producer.offer(1L, VOD_SNAPSHOT_1));
+        assertTrue(producer.offer(2L, BP_SNAPSHOT));
+        assertTrue(producer.offer(1L, VOD_SNAPSHOT_2));
+
+        assertEquals(2, consumer.size());
+        assertContains(VOD_SNAPSHOT_2, BP_SNAPSHOT);
+        assertTrue(producer.isEmpty());
+    }
+
+    @Test
+    public void shouldNotUpdateValuesAlreadyPolled() {
+        assertTrue(producer.offer(1L, VOD_SNAPSHOT_1));
+        assertContains(VOD_SNAPSHOT_1);
+
+        assertTrue(producer.offer(1L, VOD_SNAPSHOT_2));
+        assertContains(VOD_SNAPSHOT_2);
+    }
+
+    @Test
+    public void shouldNotUpdateValuesWithoutKeys() {
+        assertTrue(producer.offer(VOD_SNAPSHOT_1));
+        assertTrue(producer.offer(VOD_SNAPSHOT_2));
+
+        final List<Long> keys = new ArrayList<Long>();
+        assertEquals(2, consumer.drain(new ValueHandler<Long, MarketSnapshot>() {
+            @Override
+            public void onValue(Long key, MarketSnapshot value, boolean endOfBatch) {
+                keys.add(key);
+            }
+        }));
+        assertEquals("[null, null]", keys.toString());
+    }
+
+    @Test
+    public void shouldDrainPrimitiveKeysToALongValueHandler() {
+        assertTrue(producer.offer(1000L, VOD_SNAPSHOT_1));
+        assertTrue(producer.offer(BP_SNAPSHOT));
+
+        final List<String> drained = new ArrayList<String>();
+        assertEquals(2, consumer.drain(new LongValueHandler<MarketSnapshot>() {
+            @Override
+            public void onValue(long key, boolean hasKey, MarketSnapshot value, boolean endOfBatch) {
+                drained.add((hasKey ? key + "=" : "") + value + (endOfBatch ? " end" : ""));
+            }
+        }));
+        assertEquals("[1000=1: 3/4, 2: 7/8 end]", drained.toString());
+    }
+
+    @Test
+    public void shouldRejectValuesWhenFullAndAcceptThemAfterPolling() {
+        for (long key = 0; key < 4; key++) {
+            assertTrue(producer.offer(key, VOD_SNAPSHOT_1));
+        }
+
+        assertTrue(consumer.isFull());
+        assertFalse(producer.offer(4L, VOD_SNAPSHOT_1));
+        assertEquals(1, producer.rejectionCount());
+
+        assertEquals(4, consumer.poll(new ArrayList<MarketSnapshot>()));
+        assertTrue(producer.offer(4L, BP_SNAPSHOT));
+        assertContains(BP_SNAPSHOT);
+    }
+
+    @Test
+    public void shouldKeepPendingValuesWhenReopened() throws IOException {
+        assertTrue(producer.offer(1L, VOD_SNAPSHOT_1));
+        assertTrue(producer.offer(2L, BP_SNAPSHOT));
+        assertContains(VOD_SNAPSHOT_1, BP_SNAPSHOT);
+        assertTrue(producer.offer(1L, VOD_SNAPSHOT_2));
+
+        consumer.close();
+        consumer = open(file, 4);
+        assertContains(VOD_SNAPSHOT_2);
+    }
+
+    @Test
+    public void shouldGiveARestartedConsumerTheValuesTakenByOneThatStopped() throws IOException {
+        assertTrue(producer.offer(1L, VOD_SNAPSHOT_1));
+        assertTrue(producer.offer(2L, BP_SNAPSHOT));
+
+        try {
+            consumer.drain(new ValueHandler<Long, MarketSnapshot>() {
+                @Override
+                public void onValue(Long key, MarketSnapshot value, boolean endOfBatch) {
+                    throw new IllegalStateException("consumer stopped");
+                }
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        consumer.close();
+        consumer = open(file, 4);
+        assertContains(VOD_SNAPSHOT_1, BP_SNAPSHOT);
+    }
+
+    @Test
+    public void shouldInitialiseAnEmptyFileOnceWhenOpenedConcurrently() throws Exception {
+        final int openers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(openers);
+        List<MappedCoalescingRingBuffer<MarketSnapshot>> opened = new ArrayList<MappedCoalescingRingBuffer<MarketSnapshot>>();
+
+        try {
+            for (int attempt = 0; attempt < 50; attempt++) {
+                final File emptyFile = File.createTempFile("coalescing", ".buffer");
+                final CyclicBarrier barrier = new CyclicBarrier(openers);
+                List<Future<MappedCoalescingRingBuffer<MarketSnapshot>>> futures = new ArrayList<Future<MappedCoalescingRingBuffer<MarketSnapshot>>>();
+
+                for (int opener = 0; opener < openers; opener++) {
+                    final boolean producing = opener == 0;
+                    futures.add(executor.submit(new Callable<MappedCoalescingRingBuffer<MarketSnapshot>>() {
+                        @Override
+                        public MappedCoalescingRingBuffer<MarketSnapshot> call() throws Exception {
+                            barrier.await();
+                            MappedCoalescingRingBuffer<MarketSnapshot> buffer = open(emptyFile, 4);
+                            if (producing) {
+                                assertTrue(buffer.offer(VOD_SNAPSHOT_1));
+                            }
+                            return buffer;
+                        }
+                    }));
+                }
+
+                for (Future<MappedCoalescingRingBuffer<MarketSnapshot>> future : futures) {
+                    opened.add(future.get());
+                }
+
+                // a second initialisation would have reset the sequences and lost the value
+                assertEquals(1, opened.get(openers - 1).size());
+                for (MappedCoalescingRingBuffer<MarketSnapshot> buffer : opened) {
+                    buffer.close();
+                }
+                opened.clear();
+                emptyFile.delete();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseACapacityTooLargeToMap() throws IOException {
+        open(file, 1 << 30);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseToOpenWithADifferentCapacity() throws IOException {
+        open(file, 8);
+    }
+
+    private static MappedCoalescingRingBuffer<MarketSnapshot> open(File file, int capacity) throws IOException {
+        return new MappedCoalescingRingBuffer<MarketSnapshot>(file, capacity, new MarketSnapshotCodec());
+    }
+
+    private void assertContains(MarketSnapshot... expected) {
+        List<MarketSnapshot> actual = new ArrayList<MarketSnapshot>();
+        assertEquals(expected.length, consumer.poll(actual));
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].toString(), actual.get(i).toString());
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MappedThreadSafetyTest extends ThreadSafetyTest {
+    private final List<MappedCoalescingRingBuffer<MarketSnapshot>> mappings = new ArrayList<MappedCoalescingRingBuffer<MarketSnapshot>>();
+    private File file;
+
+    @Before
+    public void beforeEveryTest() throws IOException {
+        file = File.createTempFile("coalescing", ".buffer");
+    }
+
+    @After
+    public void afterEveryTest() {
+        for (MappedCoalescingRingBuffer<MarketSnapshot> mapping : mappings) {
+            mapping.close();
+        }
+        file.delete();
+    }
+
+    @Override
+    public CoalescingBuffer<Long, MarketSnapshot> createBuffer(int capacity) {
+        try {
+            return open(capacity);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // separate mappings of the same file, as the producing and consuming processes would have
+    @Override
+    public CoalescingBuffer<Long, MarketSnapshot> consumerView(CoalescingBuffer<Long, MarketSnapshot> buffer) throws IOException {
+        return open(buffer.capacity());
+    }
+
+    @Override
+    public boolean mayRejectOffers() {
+        return true;
+    }
+
+    private MappedCoalescingRingBuffer<MarketSnapshot> open(int capacity) throws IOException {
+        MappedCoalescingRingBuffer<MarketSnapshot> mapping = new MappedCoalescingRingBuffer<MarketSnapshot>(file, capacity, new MarketSnapshotCodec());
+        mappings.add(mapping);
+        return mapping;
+    }
+
+}
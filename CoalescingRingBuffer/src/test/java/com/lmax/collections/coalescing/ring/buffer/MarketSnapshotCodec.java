@@ -0,0 +1,44 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.nio.ByteBuffer;
+
+public final class MarketSnapshotCodec implements RecordCodec<MarketSnapshot> {
+
+    @Override
+    public int recordLength() {
+        return 24;
+    }
+
+    @Override
+    public void encode(MarketSnapshot snapshot, ByteBuffer buffer, int offset) {
+        buffer.putLong(offset, snapshot.getInstrumentId());
+        buffer.putLong(offset + 8, snapshot.getBid());
+        buffer.putLong(offset + 16, snapshot.getAsk());
+    }
+
+    @Override
+    public void decode(ByteBuffer buffer, int offset, MarketSnapshot snapshot) {
+        snapshot.setInstrumentId(buffer.getLong(offset));
+        snapshot.setBestBid(buffer.getLong(offset + 8));
+        snapshot.setBestAsk(buffer.getLong(offset + 16));
+    }
+
+    @Override
+    public MarketSnapshot newInstance() {
+        return new MarketSnapshot();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MergingFunctionalTest extends FunctionalTest {
+
+    private static final MergeFunction<Long> SUM = new MergeFunction<Long>() {
+        @Override
+        public Long merge(Long pending, Long update) {
+            return pending + update;
+        }
+    };
+
+    @Override
+    public CoalescingBuffer<Long, MarketSnapshot> createBuffer(int capacity) {
+        return new MergingCoalescingRingBuffer<Long, MarketSnapshot>(capacity, new MergeFunction<MarketSnapshot>() {
+            @Override
+            public MarketSnapshot merge(MarketSnapshot pending, MarketSnapshot update) {
+                return update;
+            }
+        });
+    }
+
+    @Test
+    public void shouldMergeValuesWithEqualKeys() {
+        MergingCoalescingRingBuffer<String, Long> buffer = new MergingCoalescingRingBuffer<String, Long>(4, SUM);
+
+        assertTrue(buffer.offer("VOD", 1L));
+        assertTrue(buffer.offer("BP", 10L));
+        assertTrue(buffer.offer("VOD", 2L));
+        assertTrue(buffer.offer("VOD", 3L));
+
+        List<Long> volumes = new ArrayList<Long>();
+        assertEquals(2, buffer.poll(volumes));
+        assertEquals(Long.valueOf(6), volumes.get(0));
+        assertEquals(Long.valueOf(10), volumes.get(1));
+        assertEquals(2, buffer.coalescedCount());
+    }
+
+    @Test
+    public void shouldNotMergeIntoValuesAlreadyPolled() {
+        MergingCoalescingRingBuffer<String, Long> buffer = new MergingCoalescingRingBuffer<String, Long>(4, SUM);
+        List<Long> volumes = new ArrayList<Long>();
+
+        assertTrue(buffer.offer("VOD", 1L));
+        buffer.poll(volumes);
+        assertTrue(buffer.offer("VOD", 2L));
+        buffer.poll(volumes);
+
+        assertEquals(2, volumes.size());
+        assertEquals(Long.valueOf(1), volumes.get(0));
+        assertEquals(Long.valueOf(2), volumes.get(1));
+    }
+
+    @Test
+    public void shouldNotMergeValuesWithoutKeys() {
+        MergingCoalescingRingBuffer<String, Long> buffer = new MergingCoalescingRingBuffer<String, Long>(4, SUM);
+
+        assertTrue(buffer.offer(1L));
+        assertTrue(buffer.offer(2L));
+
+        List<Long> volumes = new ArrayList<Long>();
+        assertEquals(2, buffer.poll(volumes));
+        assertEquals(2, buffer.nonCollapsibleCount());
+    }
+
+}
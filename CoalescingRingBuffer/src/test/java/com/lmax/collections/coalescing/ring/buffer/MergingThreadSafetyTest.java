@@ -0,0 +1,81 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MergingThreadSafetyTest extends ProducerConsumerHarness<Long> {
+
+    private static final int NUMBER_OF_INSTRUMENTS = 1000;
+    private static final int NUMBER_OF_UPDATES = 5000000;
+    private static final long POISON_PILL = -1;
+
+    private static final MergeFunction<Long> SUM = new MergeFunction<Long>() {
+        @Override
+        public Long merge(Long pending, Long update) {
+            return pending + update;
+        }
+    };
+
+    private final MergingCoalescingRingBuffer<Long, Long> buffer = new MergingCoalescingRingBuffer<Long, Long>(1 << 12, SUM);
+    private long totalVolume;
+
+    @Override
+    protected void produce(int producerId) {
+        for (int update = 0; update < NUMBER_OF_UPDATES; update++) {
+            put((long) (update % NUMBER_OF_INSTRUMENTS), 1L);
+        }
+
+        put(POISON_PILL, POISON_PILL);
+    }
+
+    private void put(long key, long volume) {
+        while (!buffer.offer(key, volume)) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    protected void poll(int consumerId, List<Long> bucket, boolean limitedRead) {
+        if (limitedRead) {
+            buffer.poll(bucket, 1);
+        }
+        else {
+            buffer.poll(bucket);
+        }
+    }
+
+    @Override
+    protected boolean isPoisonPill(Long volume) {
+        return volume == POISON_PILL;
+    }
+
+    @Override
+    protected void onValue(int consumerId, Long volume) {
+        totalVolume += volume;
+    }
+
+    @Test
+    public void shouldSeeEveryUpdateExactlyOnce() throws InterruptedException {
+        runProducersAndConsumers();
+
+        assertEquals(NUMBER_OF_UPDATES, totalVolume);
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static com.lmax.collections.coalescing.ring.buffer.MarketSnapshot.createMarketSnapshot;
+import static org.junit.Assert.*;
+
+public class MultiConsumerFunctionalTest extends FunctionalTest {
+
+    @Override
+    public CoalescingBuffer<Long, MarketSnapshot> createBuffer(int capacity) {
+        return new MultiConsumerCoalescingRingBuffer<Long, MarketSnapshot>(capacity);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotHoldUpLaterBatchesWhileAnEarlierBatchIsHandled() throws InterruptedException {
+        final MultiConsumerCoalescingRingBuffer<Long, MarketSnapshot> buffer = new MultiConsumerCoalescingRingBuffer<Long, MarketSnapshot>(4);
+        assertTrue(buffer.offer(1L, createMarketSnapshot(1, 3, 4)));
+        assertTrue(buffer.offer(2L, createMarketSnapshot(2, 7, 8)));
+
+        final CountDownLatch handling = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        Thread slowConsumer = new Thread() {
+            @Override
+            public void run() {
+                buffer.drain(new ValueHandler<Long, MarketSnapshot>() {
+                    @Override
+                    public void onValue(Long key, MarketSnapshot value, boolean endOfBatch) {
+                        handling.countDown();
+                        try {
+                            finish.await();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }, 1);
+            }
+        };
+        slowConsumer.start();
+        handling.await();
+
+        assertEquals(1, buffer.poll(new ArrayList<MarketSnapshot>(), 1));
+        assertEquals("slots are not released ahead of the unfinished batch", 2, buffer.size());
+
+        finish.countDown();
+        slowConsumer.join();
+        assertEquals(0, buffer.size());
+    }
+
+}
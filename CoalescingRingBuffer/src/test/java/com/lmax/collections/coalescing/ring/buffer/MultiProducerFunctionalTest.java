@@ -0,0 +1,63 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MultiProducerFunctionalTest extends FunctionalTest {
+
+    @Override
+    public CoalescingBuffer<Long, MarketSnapshot> createBuffer(int capacity) {
+        return new MultiProducerCoalescingRingBuffer<Long, MarketSnapshot>(capacity);
+    }
+
+    @Test
+    public void shouldCountRejectionsFromAllProducers() throws Exception {
+        MultiProducerCoalescingRingBuffer<Integer, Object> buffer = new MultiProducerCoalescingRingBuffer<Integer, Object>(2);
+
+        buffer.offer(new Object());
+        buffer.offer(1, new Object());
+        buffer.offer(1, new Object());
+        assertEquals(0, buffer.rejectionCount());
+
+        buffer.offer(new Object());
+        buffer.offer(2, new Object());
+        assertEquals(2, buffer.rejectionCount());
+    }
+
+    @Test
+    public void shouldStartANewEntryOnceTheConsumerHasTakenAKey() throws Exception {
+        MultiProducerCoalescingRingBuffer<Integer, String> buffer = new MultiProducerCoalescingRingBuffer<Integer, String>(4);
+        List<String> values = new ArrayList<String>();
+
+        buffer.offer(1, "a");
+        buffer.offer(2, "b");
+        assertEquals(1, buffer.poll(values, 1));
+
+        buffer.offer(1, "c");
+        buffer.offer(2, "d");
+        assertEquals(2, buffer.poll(values));
+
+        assertEquals("a", values.get(0));
+        assertEquals("d", values.get(1));
+        assertEquals("c", values.get(2));
+    }
+
+}
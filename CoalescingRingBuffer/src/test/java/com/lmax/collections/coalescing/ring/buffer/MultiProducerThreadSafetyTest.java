@@ -0,0 +1,107 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.lmax.collections.coalescing.ring.buffer.MarketSnapshot.createMarketSnapshot;
+import static org.junit.Assert.assertEquals;
+
+public class MultiProducerThreadSafetyTest extends ProducerConsumerHarness<MarketSnapshot> {
+
+    private static final int NUMBER_OF_PRODUCERS = 4;
+    private static final int NUMBER_OF_INSTRUMENTS = 1000;
+    private static final int NUMBER_OF_ROUNDS = 2000;
+    private static final long POISON_PILL = -1;
+
+    private final CoalescingBuffer<Long, MarketSnapshot> buffer = new MultiProducerCoalescingRingBuffer<Long, MarketSnapshot>(1 << 10);
+
+    private final MarketSnapshot[] snapshots = new MarketSnapshot[NUMBER_OF_INSTRUMENTS];
+    private final long[][] lastRoundSeen = new long[NUMBER_OF_INSTRUMENTS][NUMBER_OF_PRODUCERS];
+    private String failure;
+
+    @Override
+    public int numberOfProducers() {
+        return NUMBER_OF_PRODUCERS;
+    }
+
+    // every producer updates every instrument, the bid identifies the producer and the ask the round
+    @Override
+    protected void produce(int producerId) {
+        for (long round = 0; round < NUMBER_OF_ROUNDS; round++) {
+            for (long key = 0; key < NUMBER_OF_INSTRUMENTS; key++) {
+                MarketSnapshot snapshot = createMarketSnapshot(key, producerId, round);
+
+                while (!buffer.offer(key, snapshot)) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        while (!buffer.offer(createMarketSnapshot(POISON_PILL, producerId, POISON_PILL))) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    protected void poll(int consumerId, List<MarketSnapshot> bucket, boolean limitedRead) {
+        if (limitedRead) {
+            buffer.poll(bucket, 1);
+        }
+        else {
+            buffer.poll(bucket);
+        }
+    }
+
+    @Override
+    protected boolean isPoisonPill(MarketSnapshot snapshot) {
+        return snapshot.getInstrumentId() == POISON_PILL;
+    }
+
+    @Override
+    protected void onValue(int consumerId, MarketSnapshot snapshot) {
+        int instrument = (int) snapshot.getInstrumentId();
+        int producer = (int) snapshot.getBid();
+        long round = snapshot.getAsk();
+
+        if (round <= lastRoundSeen[instrument][producer] && failure == null) {
+            failure = "instrument " + instrument + " went back from round " + lastRoundSeen[instrument][producer] +
+                    " to " + round + " for producer " + producer;
+        }
+        lastRoundSeen[instrument][producer] = round;
+        snapshots[instrument] = snapshot;
+    }
+
+    @Test
+    public void shouldSeeLastPricesFromManyProducers() throws InterruptedException {
+        for (long[] rounds : lastRoundSeen) {
+            Arrays.fill(rounds, -1);
+        }
+
+        runProducersAndConsumers();
+        assertEquals(null, failure);
+
+        for (int instrument = 0; instrument < NUMBER_OF_INSTRUMENTS; instrument++) {
+            MarketSnapshot snapshot = snapshots[instrument];
+            assertEquals("round for instrument " + instrument + ":", NUMBER_OF_ROUNDS - 1, snapshot.getAsk());
+        }
+
+        assertEquals(0, buffer.size());
+    }
+
+}
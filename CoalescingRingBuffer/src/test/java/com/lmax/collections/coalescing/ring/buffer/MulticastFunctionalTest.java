@@ -0,0 +1,171 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MulticastFunctionalTest {
+
+    private MulticastCoalescingRingBuffer<String, String> buffer;
+    private MulticastCoalescingRingBuffer.Subscriber<String, String> fast;
+    private MulticastCoalescingRingBuffer.Subscriber<String, String> slow;
+
+    @Before
+    public void beforeEveryTest() {
+        buffer = new MulticastCoalescingRingBuffer<String, String>(4);
+        fast = buffer.subscribe();
+        slow = buffer.subscribe();
+    }
+
+    @Test
+    public void shouldDeliverEveryValueToEverySubscriber() {
+        assertTrue(buffer.offer("VOD", "VOD 1"));
+        assertTrue(buffer.offer("BP", "BP 1"));
+
+        assertEquals("[VOD 1, BP 1]", poll(fast).toString());
+        assertEquals("[VOD 1, BP 1]", poll(slow).toString());
+    }
+
+    @Test
+    public void shouldUpdateValuesNoSubscriberHasPolled() {
+        assertTrue(buffer.offer("VOD", "VOD 1"));
+        assertTrue(buffer.offer("BP", "BP 1"));
+        assertTrue(buffer.offer("VOD", "VOD 2"));
+
+        assertEquals("[VOD 2, BP 1]", poll(fast).toString());
+        assertEquals("[VOD 2, BP 1]", poll(slow).toString());
+        assertEquals(1, buffer.coalescedCount());
+    }
+
+    @Test
+    public void shouldGiveTheSlowSubscriberOnlyTheLatestValueWhileTheFastOneSeesEach() {
+        assertTrue(buffer.offer("VOD", "VOD 1"));
+        assertEquals("[VOD 1]", poll(fast).toString());
+
+        assertTrue(buffer.offer("VOD", "VOD 2"));
+        assertEquals("[VOD 2]", poll(fast).toString());
+
+        assertTrue(buffer.offer("VOD", "VOD 3"));
+        assertEquals("[VOD 3]", poll(fast).toString());
+
+        assertEquals("[VOD 3]", poll(slow).toString());
+        assertEquals(2, slow.skippedCount());
+        assertEquals(0, fast.skippedCount());
+    }
+
+    @Test
+    public void shouldDeliverSupersededValuesPolledBeforeTheirReplacement() {
+        assertTrue(buffer.offer("VOD", "VOD 1"));
+        assertTrue(buffer.offer("BP", "BP 1"));
+        assertEquals(2, fast.poll(new ArrayList<String>()));
+
+        assertTrue(buffer.offer("VOD", "VOD 2"));
+
+        List<String> values = new ArrayList<String>();
+        assertEquals(1, slow.poll(values, 1));
+        assertEquals(2, slow.poll(values));
+        assertEquals("[VOD 1, BP 1, VOD 2]", values.toString());
+    }
+
+    @Test
+    public void shouldNotCollapseValuesWithoutKeys() {
+        assertTrue(buffer.offer("1"));
+        assertTrue(buffer.offer("2"));
+
+        assertEquals("[1, 2]", poll(fast).toString());
+        assertEquals("[1, 2]", poll(slow).toString());
+        assertEquals(2, buffer.nonCollapsibleCount());
+    }
+
+    @Test
+    public void shouldOnlyRejectValuesWhenTheSlowestSubscriberIsAWholeBufferBehind() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(Integer.toString(i)));
+        }
+        assertEquals(4, poll(fast).size());
+
+        assertFalse(buffer.offer("4"));
+        assertEquals(1, buffer.rejectionCount());
+
+        assertEquals(1, slow.poll(new ArrayList<String>(), 1));
+        assertTrue(buffer.offer("4"));
+        assertEquals("[4]", poll(fast).toString());
+        assertEquals("[1, 2, 3, 4]", poll(slow).toString());
+    }
+
+    @Test
+    public void shouldSeeOnlyValuesOfferedAfterSubscribing() {
+        assertTrue(buffer.offer("VOD", "VOD 1"));
+        MulticastCoalescingRingBuffer.Subscriber<String, String> late = buffer.subscribe();
+        assertTrue(buffer.offer("BP", "BP 1"));
+
+        assertTrue(late.size() == 1);
+        assertEquals("[BP 1]", poll(late).toString());
+    }
+
+    @Test
+    public void shouldDrainKeysWithTheEndOfBatchOnTheLastValue() {
+        assertTrue(buffer.offer("VOD", "VOD 1"));
+        assertEquals(1, fast.poll(new ArrayList<String>()));
+        assertTrue(buffer.offer("BP", "BP 1"));
+        assertTrue(buffer.offer("VOD", "VOD 2"));
+        assertTrue(buffer.offer("3"));
+
+        final List<String> drained = new ArrayList<String>();
+        assertEquals(3, slow.drain(new ValueHandler<String, String>() {
+            @Override
+            public void onValue(String key, String value, boolean endOfBatch) {
+                drained.add(key + "=" + value + (endOfBatch ? " end" : ""));
+            }
+        }));
+
+        assertEquals("[BP=BP 1, VOD=VOD 2, null=3 end]", drained.toString());
+    }
+
+    @Test
+    public void shouldMarkTheSupersededValueBeforeItsReplacementIsVisible() {
+        final List<String> pollsBeforePublishing = new ArrayList<String>();
+
+        // stop the producer between marking the superseded entry and publishing its replacement, and poll there
+        buffer = new MulticastCoalescingRingBuffer<String, String>(4, new Runnable() {
+            @Override
+            public void run() {
+                pollsBeforePublishing.add(poll(slow).toString());
+            }
+        });
+        fast = buffer.subscribe();
+        slow = buffer.subscribe();
+
+        assertTrue(buffer.offer("VOD", "VOD 1"));
+        assertEquals("[VOD 1]", poll(fast).toString());
+        assertTrue(buffer.offer("VOD", "VOD 2"));
+
+        assertEquals("[[], [VOD 1]]", pollsBeforePublishing.toString());
+        assertEquals("[VOD 2]", poll(slow).toString());
+    }
+
+    private static List<String> poll(MulticastCoalescingRingBuffer.Subscriber<String, String> subscriber) {
+        List<String> values = new ArrayList<String>();
+        subscriber.poll(values);
+        return values;
+    }
+
+}
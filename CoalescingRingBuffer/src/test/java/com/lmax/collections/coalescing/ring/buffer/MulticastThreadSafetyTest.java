@@ -0,0 +1,103 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lmax.collections.coalescing.ring.buffer.MarketSnapshot.createMarketSnapshot;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MulticastThreadSafetyTest extends ProducerConsumerHarness<MarketSnapshot> {
+
+    private static final int NUMBER_OF_SUBSCRIBERS = 3;
+    private static final int NUMBER_OF_INSTRUMENTS = 1000;
+    private static final int NUMBER_OF_UPDATES = 2000000;
+    private static final long POISON_PILL = -1;
+
+    private final MulticastCoalescingRingBuffer<Long, MarketSnapshot> buffer = new MulticastCoalescingRingBuffer<Long, MarketSnapshot>(1 << 12);
+    private final List<MulticastCoalescingRingBuffer.Subscriber<Long, MarketSnapshot>> subscribers =
+            new ArrayList<MulticastCoalescingRingBuffer.Subscriber<Long, MarketSnapshot>>();
+
+    private final long[][] lastPrices = new long[NUMBER_OF_SUBSCRIBERS][NUMBER_OF_INSTRUMENTS];
+    private final boolean[] pricesWentBackwards = new boolean[NUMBER_OF_SUBSCRIBERS];
+
+    @Override
+    public int numberOfConsumers() {
+        return NUMBER_OF_SUBSCRIBERS;
+    }
+
+    @Override
+    public boolean consumersSeeEveryValue() {
+        return true;
+    }
+
+    @Override
+    protected void produce(int producerId) {
+        for (int update = 1; update <= NUMBER_OF_UPDATES; update++) {
+            long key = update % NUMBER_OF_INSTRUMENTS;
+            put(key, createMarketSnapshot(key, update, update));
+        }
+
+        put(POISON_PILL, createMarketSnapshot(POISON_PILL, POISON_PILL, POISON_PILL));
+    }
+
+    private void put(long key, MarketSnapshot snapshot) {
+        while (!buffer.offer(key, snapshot)) {
+            Thread.yield();
+        }
+    }
+
+    // subscribers poll at very different rates rather than alternating
+    @Override
+    protected void poll(int consumerId, List<MarketSnapshot> bucket, boolean limitedRead) {
+        subscribers.get(consumerId).poll(bucket, 1 << (consumerId * 4));
+    }
+
+    @Override
+    protected boolean isPoisonPill(MarketSnapshot snapshot) {
+        return snapshot.getInstrumentId() == POISON_PILL;
+    }
+
+    @Override
+    protected void onValue(int consumerId, MarketSnapshot snapshot) {
+        int instrument = (int) snapshot.getInstrumentId();
+        if (snapshot.getBid() < lastPrices[consumerId][instrument]) {
+            pricesWentBackwards[consumerId] = true;
+        }
+        lastPrices[consumerId][instrument] = snapshot.getBid();
+    }
+
+    @Test
+    public void shouldSeeLastPricesInOrderOnEverySubscriber() throws InterruptedException {
+        for (int i = 0; i < NUMBER_OF_SUBSCRIBERS; i++) {
+            subscribers.add(buffer.subscribe());
+        }
+
+        runProducersAndConsumers();
+
+        for (int consumer = 0; consumer < NUMBER_OF_SUBSCRIBERS; consumer++) {
+            assertTrue("consumer-" + consumer + " saw prices go backwards", !pricesWentBackwards[consumer]);
+            for (int instrument = 0; instrument < NUMBER_OF_INSTRUMENTS; instrument++) {
+                long lastUpdate = NUMBER_OF_UPDATES - ((NUMBER_OF_UPDATES - instrument) % NUMBER_OF_INSTRUMENTS);
+                assertEquals("consumer-" + consumer + " price for instrument " + instrument + ":", lastUpdate, lastPrices[consumer][instrument]);
+            }
+        }
+    }
+
+}
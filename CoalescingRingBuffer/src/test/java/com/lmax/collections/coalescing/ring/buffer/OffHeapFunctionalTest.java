@@ -0,0 +1,148 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lmax.collections.coalescing.ring.buffer.MarketSnapshot.createMarketSnapshot;
+import static org.junit.Assert.*;
+
+public class OffHeapFunctionalTest {
+    private final static MarketSnapshot VOD_SNAPSHOT_1 = createMarketSnapshot(1, 3, 4);
+    private final static MarketSnapshot VOD_SNAPSHOT_2 = createMarketSnapshot(1, 5, 6);
+    private final static MarketSnapshot BP_SNAPSHOT = createMarketSnapshot(2, 7, 8);
+
+    private OffHeapCoalescingRingBuffer<MarketSnapshot> buffer;
+
+    @Before
+    public void beforeEveryTest() {
+        buffer = new OffHeapCoalescingRingBuffer<MarketSnapshot>(4, new MarketSnapshotCodec());
+    }
+
+    @Test
+    public void shouldCorrectlyIncreaseTheCapacityToTheNextHigherPowerOfTwo() {
+        assertEquals(1024, new OffHeapCoalescingRingBuffer<MarketSnapshot>(1023, new MarketSnapshotCodec()).capacity());
+        assertEquals(2048, new OffHeapCoalescingRingBuffer<MarketSnapshot>(1025, new MarketSnapshotCodec()).capacity());
+    }
+
+    @Test
+    public void shouldCopyValuesInAndOut() {
+        assertTrue(buffer.offer(VOD_SNAPSHOT_1.getInstrumentId(), VOD_SNAPSHOT_1));
+
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+        assertEquals(1, buffer.poll(snapshots));
+        assertNotSame(VOD_SNAPSHOT_1, snapshots.get(0));
+        assertEquals(VOD_SNAPSHOT_1.toString(), snapshots.get(0).toString());
+    }
+
+    @Test
+    public void shouldUpdateValuesWithEqualKeysAndPreserveOrdering() {
+        assertTrue(buffer.offer(VOD_SNAPSHOT_1.getInstrumentId(), VOD_SNAPSHOT_1));
+        assertTrue(buffer.offer(BP_SNAPSHOT.getInstrumentId(), BP_SNAPSHOT));
+        assertTrue(buffer.offer(VOD_SNAPSHOT_2.getInstrumentId(), VOD_SNAPSHOT_2));
+
+        assertEquals(2, buffer.size());
+        assertContains(VOD_SNAPSHOT_2, BP_SNAPSHOT);
+        assertEquals(1, buffer.coalescedCount());
+    }
+
+    @Test
+    public void shouldNotUpdateValuesWithoutKeys() {
+        assertTrue(buffer.offer(VOD_SNAPSHOT_1));
+        assertTrue(buffer.offer(VOD_SNAPSHOT_2));
+
+        assertContains(VOD_SNAPSHOT_1, VOD_SNAPSHOT_2);
+        assertEquals(2, buffer.nonCollapsibleCount());
+    }
+
+    @Test
+    public void shouldNotUpdateValuesAlreadyPolled() {
+        assertTrue(buffer.offer(1L, VOD_SNAPSHOT_1));
+        assertContains(VOD_SNAPSHOT_1);
+
+        assertTrue(buffer.offer(1L, VOD_SNAPSHOT_2));
+        assertContains(VOD_SNAPSHOT_2);
+    }
+
+    @Test
+    public void shouldRejectValuesWhenFullAndAcceptThemAfterPolling() {
+        for (long key = 0; key < 4; key++) {
+            assertTrue(buffer.offer(key, VOD_SNAPSHOT_1));
+        }
+
+        assertTrue(buffer.isFull());
+        assertFalse(buffer.offer(4L, VOD_SNAPSHOT_1));
+        assertTrue(buffer.offer(3L, VOD_SNAPSHOT_2));
+        assertEquals(1, buffer.rejectionCount());
+
+        assertEquals(4, buffer.poll(new ArrayList<MarketSnapshot>()));
+        assertTrue(buffer.offer(4L, BP_SNAPSHOT));
+        assertContains(BP_SNAPSHOT);
+    }
+
+    @Test
+    public void shouldDrainKeysAndValuesThroughOneFlyweight() {
+        assertTrue(buffer.offer(1L, VOD_SNAPSHOT_1));
+        assertTrue(buffer.offer(BP_SNAPSHOT));
+
+        final List<String> drained = new ArrayList<String>();
+        final List<MarketSnapshot> instances = new ArrayList<MarketSnapshot>();
+        assertEquals(2, buffer.drain(new ValueHandler<Long, MarketSnapshot>() {
+            @Override
+            public void onValue(Long key, MarketSnapshot value, boolean endOfBatch) {
+                drained.add(key + "=" + value + (endOfBatch ? " end" : ""));
+                instances.add(value);
+            }
+        }));
+
+        assertEquals("[1=1: 3/4, null=2: 7/8 end]", drained.toString());
+        assertSame(instances.get(0), instances.get(1));
+    }
+
+    @Test
+    public void shouldDrainPrimitiveKeysToALongValueHandler() {
+        assertTrue(buffer.offer(1000L, VOD_SNAPSHOT_1));
+        assertTrue(buffer.offer(BP_SNAPSHOT));
+
+        final List<String> drained = new ArrayList<String>();
+        assertEquals(2, buffer.drain(new LongValueHandler<MarketSnapshot>() {
+            @Override
+            public void onValue(long key, boolean hasKey, MarketSnapshot value, boolean endOfBatch) {
+                drained.add((hasKey ? key + "=" : "") + value + (endOfBatch ? " end" : ""));
+            }
+        }));
+
+        assertEquals("[1000=1: 3/4, 2: 7/8 end]", drained.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseACapacityTooLargeForADirectBuffer() {
+        new OffHeapCoalescingRingBuffer<MarketSnapshot>(1 << 27, new MarketSnapshotCodec());
+    }
+
+    private void assertContains(MarketSnapshot... expected) {
+        List<MarketSnapshot> actual = new ArrayList<MarketSnapshot>();
+        assertEquals(expected.length, buffer.poll(actual));
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].toString(), actual.get(i).toString());
+        }
+    }
+
+}
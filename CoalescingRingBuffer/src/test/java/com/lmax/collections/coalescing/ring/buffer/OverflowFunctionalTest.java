@@ -0,0 +1,204 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lmax.collections.coalescing.ring.buffer.OverflowCoalescingBuffer.Policy.*;
+import static org.junit.Assert.*;
+
+public class OverflowFunctionalTest {
+
+    @Test
+    public void shouldSpillToTheOverflowQueueAndPollItAfterTheBuffer() {
+        OverflowCoalescingBuffer<String, String> buffer = createBuffer(SPILL);
+
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        assertTrue(buffer.offer("RDS", "RDS 1"));
+        assertTrue(buffer.offer("CONTROL"));
+        assertTrue(buffer.offer("RDS", "RDS 2"));
+        assertTrue(buffer.offer("VOD", "VOD 2"));
+
+        assertEquals(3, buffer.spilledCount());
+        assertEquals(3, buffer.overflowSize());
+        assertEquals(5, buffer.size());
+        assertEquals("[VOD 1, BP 1, RDS 2, CONTROL, VOD 2]", poll(buffer, Integer.MAX_VALUE).toString());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void shouldKeepSpillingWhileTheOverflowQueueHoldsValues() {
+        OverflowCoalescingBuffer<String, String> buffer = createBuffer(SPILL);
+
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        buffer.offer("RDS", "RDS 1");
+
+        assertEquals("[VOD 1]", poll(buffer, 1).toString());
+        assertTrue(buffer.offer("VOD", "VOD 2"));
+
+        assertEquals(2, buffer.overflowSize());
+        assertEquals("[BP 1, RDS 1, VOD 2]", poll(buffer, Integer.MAX_VALUE).toString());
+
+        assertTrue(buffer.offer("VOD", "VOD 3"));
+        assertEquals(0, buffer.overflowSize());
+    }
+
+    @Test
+    public void shouldDropTheOldestQueuedValueWithoutAKeyOnceTheOverflowQueueIsFull() {
+        OverflowCoalescingBuffer<String, String> buffer = createBuffer(DROP_OLDEST);
+
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        buffer.offer("CONTROL 1");
+        buffer.offer("RDS", "RDS 1");
+
+        assertTrue(buffer.offer("CONTROL 2"));
+        assertEquals(1, buffer.droppedCount());
+        assertTrue(buffer.offer("BT", "BT 1"));
+        assertEquals(2, buffer.droppedCount());
+
+        assertFalse(buffer.offer("CONTROL 3"));
+        assertEquals(1, buffer.rejectionCount());
+
+        assertTrue(buffer.offer("RDS", "RDS 2"));
+        assertEquals("[VOD 1, BP 1, RDS 2, BT 1]", poll(buffer, Integer.MAX_VALUE).toString());
+    }
+
+    @Test
+    public void shouldSkipDroppedValuesWithoutCountingThemWhilePolling() {
+        OverflowCoalescingBuffer<String, String> buffer = createBuffer(DROP_OLDEST);
+
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(buffer.offer("CONTROL " + i));
+        }
+
+        assertEquals(998, buffer.droppedCount());
+        assertEquals(2, buffer.overflowSize());
+        assertEquals("[VOD 1, BP 1, CONTROL 998]", poll(buffer, 3).toString());
+
+        final List<String> drained = new ArrayList<String>();
+        assertEquals(1, buffer.drain(new ValueHandler<String, String>() {
+            @Override
+            public void onValue(String key, String value, boolean endOfBatch) {
+                drained.add(value + (endOfBatch ? " end" : ""));
+            }
+        }));
+        assertEquals("[CONTROL 999 end]", drained.toString());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void shouldHandTheValueToTheCallbackAndReject() {
+        final List<String> overflowed = new ArrayList<String>();
+        OverflowCoalescingBuffer<String, String> buffer = new OverflowCoalescingBuffer<String, String>(
+                new CoalescingRingBuffer<String, String>(2), new OverflowHandler<String, String>() {
+            @Override
+            public void onOverflow(String key, String value) {
+                overflowed.add(key + "=" + value);
+            }
+        });
+
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        assertTrue(buffer.offer("VOD", "VOD 2"));
+        assertFalse(buffer.offer("RDS", "RDS 1"));
+        assertFalse(buffer.offer("CONTROL"));
+
+        assertEquals("[RDS=RDS 1, null=CONTROL]", overflowed.toString());
+        assertEquals(2, buffer.handedOffCount());
+        assertEquals(2, buffer.rejectionCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNeedAHandlerForTheCallbackPolicy() {
+        createBuffer(CALLBACK);
+    }
+
+    @Test
+    public void shouldParkTheProducerUntilTheConsumerMakesRoom() throws Exception {
+        final OverflowCoalescingBuffer<String, String> buffer = createBuffer(PARK);
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                buffer.offer("RDS", "RDS 1");
+            }
+        };
+        producer.start();
+
+        while (buffer.parkedCount() == 0) {
+            Thread.yield();
+        }
+        assertEquals("[VOD 1, BP 1]", poll(buffer, Integer.MAX_VALUE).toString());
+        producer.join();
+
+        assertEquals("[RDS 1]", poll(buffer, Integer.MAX_VALUE).toString());
+        assertTrue(buffer.parkedNanos() > 0);
+        assertEquals(0, buffer.rejectionCount());
+    }
+
+    @Test
+    public void shouldRejectWhenTheParkedProducerIsInterrupted() {
+        OverflowCoalescingBuffer<String, String> buffer = createBuffer(PARK);
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(buffer.offer("RDS", "RDS 1"));
+            assertEquals(1, buffer.rejectionCount());
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void shouldOnlyMarkTheLastValueFromTheOverflowQueueAsTheEndOfBatch() {
+        OverflowCoalescingBuffer<String, String> buffer = createBuffer(SPILL);
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        buffer.offer("CONTROL");
+
+        final List<String> drained = new ArrayList<String>();
+        assertEquals(3, buffer.drain(new ValueHandler<String, String>() {
+            @Override
+            public void onValue(String key, String value, boolean endOfBatch) {
+                drained.add(key + "=" + value + (endOfBatch ? " end" : ""));
+            }
+        }));
+
+        assertEquals("[VOD=VOD 1, BP=BP 1, null=CONTROL end]", drained.toString());
+    }
+
+    private OverflowCoalescingBuffer<String, String> createBuffer(OverflowCoalescingBuffer.Policy policy) {
+        return new OverflowCoalescingBuffer<String, String>(new CoalescingRingBuffer<String, String>(2), policy);
+    }
+
+    private List<String> poll(CoalescingBuffer<String, String> buffer, int maxItems) {
+        List<String> bucket = new ArrayList<String>();
+        buffer.poll(bucket, maxItems);
+        return bucket;
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class OverflowThreadSafetyTest extends ProducerConsumerHarness<long[]> {
+
+    private static final int NUMBER_OF_INSTRUMENTS = 100;
+    private static final int NUMBER_OF_UPDATES = 2000000;
+    private static final long POISON_PILL = -1;
+    private static final long NO_KEY = -2;
+
+    private final OverflowCoalescingBuffer<Long, long[]> buffer = new OverflowCoalescingBuffer<Long, long[]>(
+            new CoalescingRingBuffer<Long, long[]>(16), OverflowCoalescingBuffer.Policy.SPILL);
+
+    private final long[] lastUpdates = new long[NUMBER_OF_INSTRUMENTS];
+    private long lastNonCollapsible;
+    private int nonCollapsibleCount;
+    private boolean orderPreserved = true;
+
+    @Override
+    protected void produce(int producerId) {
+        for (long update = 1; update <= NUMBER_OF_UPDATES; update++) {
+            if (update % 1000 == 0) {
+                assertEquals(true, buffer.offer(new long[] {NO_KEY, update}));
+            } else {
+                assertEquals(true, buffer.offer(update % NUMBER_OF_INSTRUMENTS, new long[] {update % NUMBER_OF_INSTRUMENTS, update}));
+            }
+        }
+
+        assertEquals(true, buffer.offer(new long[] {POISON_PILL, POISON_PILL}));
+    }
+
+    @Override
+    protected void poll(int consumerId, List<long[]> bucket, boolean limitedRead) {
+        if (limitedRead) {
+            buffer.poll(bucket, 7);
+        } else {
+            buffer.poll(bucket);
+        }
+    }
+
+    @Override
+    protected boolean isPoisonPill(long[] update) {
+        return update[0] == POISON_PILL;
+    }
+
+    @Override
+    protected void onValue(int consumerId, long[] update) {
+        if (update[0] == NO_KEY) {
+            orderPreserved &= update[1] > lastNonCollapsible;
+            lastNonCollapsible = update[1];
+            nonCollapsibleCount++;
+        } else {
+            int instrument = (int) update[0];
+            // the ring buffer may deliver a value twice if the consumer claims it while the producer is collapsing into it
+            orderPreserved &= update[1] >= lastUpdates[instrument];
+            lastUpdates[instrument] = update[1];
+        }
+    }
+
+    @Test
+    public void shouldSeeEveryValueWithoutAKeyAndTheLatestOfEveryKeyInOrderWhenSpilling() throws InterruptedException {
+        runProducersAndConsumers();
+
+        assertEquals(true, orderPreserved);
+        assertEquals(NUMBER_OF_UPDATES / 1000, nonCollapsibleCount);
+        for (int instrument = 1; instrument < NUMBER_OF_INSTRUMENTS; instrument++) {
+            assertEquals(NUMBER_OF_UPDATES - NUMBER_OF_UPDATES % NUMBER_OF_INSTRUMENTS - NUMBER_OF_INSTRUMENTS + instrument, lastUpdates[instrument]);
+        }
+        assertEquals(0, buffer.rejectionCount());
+    }
+
+}
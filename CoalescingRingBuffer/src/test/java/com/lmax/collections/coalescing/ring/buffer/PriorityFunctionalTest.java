@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PriorityFunctionalTest {
+
+    private PriorityCoalescingBuffer<String, String> buffer;
+
+    @Before
+    public void beforeEveryTest() {
+        buffer = new PriorityCoalescingBuffer<String, String>(4, 16);
+    }
+
+    @Test
+    public void shouldPollUrgentValuesBeforeQueuedData() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        buffer.offer("CANCEL");
+        buffer.offer("VOD", "VOD 2");
+        buffer.offer("HALT");
+
+        assertEquals("[CANCEL, HALT, VOD 2, BP 1]", poll(Integer.MAX_VALUE).toString());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void shouldTakeUrgentValuesFirstWhenLimitedToFewerItemsThanAreWaiting() {
+        for (int i = 0; i < 16; i++) {
+            assertTrue(buffer.offer("KEY" + i, "DATA " + i));
+        }
+        assertFalse(buffer.isFull());
+        assertFalse(buffer.offer("KEY16", "DATA 16"));
+
+        assertTrue(buffer.offer("CANCEL"));
+
+        assertEquals("[CANCEL, DATA 0]", poll(2).toString());
+        assertEquals(15, buffer.size());
+    }
+
+    @Test
+    public void shouldCollapseUrgentValuesOnlyWithOtherUrgentValues() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offerUrgent("VOD", "VOD CANCEL 1");
+        buffer.offerUrgent("VOD", "VOD CANCEL 2");
+
+        assertEquals(2, buffer.size());
+        assertEquals(1, buffer.urgentLane().size());
+        assertEquals("[VOD CANCEL 2, VOD 1]", poll(Integer.MAX_VALUE).toString());
+    }
+
+    @Test
+    public void shouldRejectUrgentValuesWhenTheUrgentLaneIsFull() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer("CONTROL " + i));
+        }
+
+        assertFalse(buffer.offer("CONTROL 4"));
+        assertTrue(buffer.offer("VOD", "VOD 1"));
+        assertEquals(20, buffer.capacity());
+        assertEquals(5, buffer.size());
+    }
+
+    @Test
+    public void shouldOnlyMarkTheLastValueDrainedFromBothLanesAsTheEndOfBatch() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("CANCEL");
+        buffer.offer("BP", "BP 1");
+
+        final List<String> drained = new ArrayList<String>();
+        assertEquals(3, buffer.drain(new ValueHandler<String, String>() {
+            @Override
+            public void onValue(String key, String value, boolean endOfBatch) {
+                drained.add(key + "=" + value + (endOfBatch ? " end" : ""));
+            }
+        }));
+
+        assertEquals("[null=CANCEL, VOD=VOD 1, BP=BP 1 end]", drained.toString());
+    }
+
+    @Test
+    public void shouldMarkTheLastUrgentValueAsTheEndOfBatchWhenNoDataFits() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("CANCEL");
+
+        final List<Boolean> endOfBatches = new ArrayList<Boolean>();
+        assertEquals(1, buffer.drain(new ValueHandler<String, String>() {
+            @Override
+            public void onValue(String key, String value, boolean endOfBatch) {
+                endOfBatches.add(endOfBatch);
+            }
+        }, 1));
+
+        assertEquals("[true]", endOfBatches.toString());
+        assertEquals(1, buffer.dataLane().size());
+    }
+
+    private List<String> poll(int maxItems) {
+        List<String> bucket = new ArrayList<String>();
+        buffer.poll(bucket, maxItems);
+        return bucket;
+    }
+
+}
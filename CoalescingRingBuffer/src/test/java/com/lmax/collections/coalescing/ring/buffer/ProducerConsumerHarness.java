@@ -0,0 +1,170 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Runs producer threads offering to a buffer against consumer threads polling it, until the consumers have seen a
+ * poison pill from every producer. Each variant's test supplies the offers, the polls and the checks on every value.
+ */
+public abstract class ProducerConsumerHarness<V> {
+
+    private AtomicIntegerArray poisonPillsSeen;
+    private volatile Throwable failure;
+
+    public int numberOfProducers() {
+        return 1;
+    }
+
+    public int numberOfConsumers() {
+        return 1;
+    }
+
+    /**
+     * @return true if every consumer is given every value, so each must see every poison pill itself
+     */
+    public boolean consumersSeeEveryValue() {
+        return false;
+    }
+
+    /**
+     * Offer every update followed by a poison pill
+     */
+    protected abstract void produce(int producerId);
+
+    /**
+     * Poll or drain into the bucket, reading only a few values when limitedRead is set, which alternates
+     */
+    protected abstract void poll(int consumerId, List<V> bucket, boolean limitedRead);
+
+    protected abstract boolean isPoisonPill(V value);
+
+    protected abstract void onValue(int consumerId, V value);
+
+    /**
+     * @throws AssertionError if a producer or consumer threw, with what it threw as the cause
+     */
+    protected final void runProducersAndConsumers() throws InterruptedException {
+        poisonPillsSeen = new AtomicIntegerArray(numberOfConsumers());
+        failure = null;
+
+        List<Consumer> consumers = new ArrayList<Consumer>();
+        for (int consumerId = 0; consumerId < numberOfConsumers(); consumerId++) {
+            consumers.add(new Consumer(consumerId));
+        }
+
+        for (int producerId = 0; producerId < numberOfProducers(); producerId++) {
+            new Producer(producerId).start();
+        }
+        for (Consumer consumer : consumers) {
+            consumer.start();
+        }
+
+        for (Consumer consumer : consumers) {
+            consumer.join();
+        }
+
+        if (failure != null) {
+            throw new AssertionError(failure);
+        }
+    }
+
+    /**
+     * Check a value as it is drained, for consumers that cannot leave it in the bucket until the poll returns
+     */
+    protected final void deliver(int consumerId, V value) {
+        if (isPoisonPill(value)) {
+            poisonPillsSeen.incrementAndGet(consumerId);
+        } else {
+            onValue(consumerId, value);
+        }
+    }
+
+    private boolean seenEveryPoisonPill(int consumerId) {
+        if (consumersSeeEveryValue()) {
+            return poisonPillsSeen.get(consumerId) == numberOfProducers();
+        }
+
+        int seen = 0;
+        for (int i = 0; i < poisonPillsSeen.length(); i++) {
+            seen += poisonPillsSeen.get(i);
+        }
+        return seen == numberOfProducers();
+    }
+
+    // a thread that throws stops the consumers rather than leaving them waiting for a poison pill
+    private abstract class Worker extends Thread {
+
+        private Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                work();
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+        abstract void work();
+    }
+
+    private class Producer extends Worker {
+        private final int producerId;
+
+        private Producer(int producerId) {
+            super("producer-" + producerId);
+            this.producerId = producerId;
+        }
+
+        @Override
+        void work() {
+            produce(producerId);
+        }
+    }
+
+    private class Consumer extends Worker {
+        private final int consumerId;
+
+        private Consumer(int consumerId) {
+            super("consumer-" + consumerId);
+            this.consumerId = consumerId;
+        }
+
+        @Override
+        void work() {
+            List<V> bucket = new ArrayList<V>();
+            boolean limitedRead = false;
+
+            while (!seenEveryPoisonPill(consumerId) && failure == null) {
+                poll(consumerId, bucket, limitedRead);
+                limitedRead = !limitedRead;
+
+                for (V value : bucket) {
+                    deliver(consumerId, value);
+                }
+
+                bucket.clear();
+            }
+        }
+    }
+
+}
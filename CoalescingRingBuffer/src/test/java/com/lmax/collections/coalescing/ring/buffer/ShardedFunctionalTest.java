@@ -0,0 +1,177 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lmax.collections.coalescing.ring.buffer.MarketSnapshot.createMarketSnapshot;
+import static org.junit.Assert.*;
+
+public class ShardedFunctionalTest extends FunctionalTest {
+
+    @Override
+    public CoalescingBuffer<Long, MarketSnapshot> createBuffer(int capacity) {
+        return new ShardedCoalescingBuffer<Long, MarketSnapshot>(1, capacity);
+    }
+
+    @Test
+    public void shouldRoundTheNumberOfShardsUpToAPowerOfTwo() {
+        ShardedCoalescingBuffer<Long, MarketSnapshot> buffer = new ShardedCoalescingBuffer<Long, MarketSnapshot>(3, 16);
+
+        assertEquals(4, buffer.numberOfShards());
+        assertEquals(64, buffer.capacity());
+    }
+
+    @Test
+    public void shouldSpreadKeysOverEveryShard() {
+        ShardedCoalescingBuffer<Long, MarketSnapshot> buffer = new ShardedCoalescingBuffer<Long, MarketSnapshot>(4, 1024);
+
+        for (long key = 0; key < 1000; key++) {
+            assertTrue(buffer.offer(key, createMarketSnapshot(key, 1, 1)));
+        }
+
+        for (int shard = 0; shard < buffer.numberOfShards(); shard++) {
+            assertTrue("shard " + shard, buffer.shard(shard).size() > 150);
+        }
+        assertEquals(1000, buffer.size());
+    }
+
+    @Test
+    public void shouldUpdateValuesWithEqualKeysAndPreserveOrderingWithinAShard() {
+        ShardedCoalescingBuffer<Long, MarketSnapshot> buffer = new ShardedCoalescingBuffer<Long, MarketSnapshot>(4, 16);
+
+        for (long key = 0; key < 8; key++) {
+            assertTrue(buffer.offer(key, createMarketSnapshot(key, 1, 1)));
+        }
+        for (long key = 0; key < 8; key++) {
+            assertTrue(buffer.offer(key, createMarketSnapshot(key, 2, 2)));
+        }
+
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+        assertEquals(8, buffer.poll(snapshots));
+
+        long[] lastKeyInShard = {-1, -1, -1, -1};
+        for (MarketSnapshot snapshot : snapshots) {
+            int shard = buffer.shardIndexOf(snapshot.getInstrumentId());
+
+            assertEquals(2, snapshot.getBid());
+            assertTrue(snapshot.getInstrumentId() > lastKeyInShard[shard]);
+            lastKeyInShard[shard] = snapshot.getInstrumentId();
+        }
+    }
+
+    @Test
+    public void shouldStartEachPollFromTheNextShard() {
+        ShardedCoalescingBuffer<Long, MarketSnapshot> buffer = new ShardedCoalescingBuffer<Long, MarketSnapshot>(2, 16);
+
+        long[] keyInShard = {-1, -1};
+        for (long key = 0; keyInShard[0] == -1 || keyInShard[1] == -1; key++) {
+            keyInShard[buffer.shardIndexOf(key)] = key;
+        }
+
+        for (int round = 0; round < 2; round++) {
+            assertTrue(buffer.offer(createMarketSnapshot(-1, 1, 1)));
+            assertTrue(buffer.offer(keyInShard[1], createMarketSnapshot(keyInShard[1], 1, 1)));
+        }
+
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+        assertEquals(1, buffer.poll(snapshots, 1));
+        assertEquals(1, buffer.poll(snapshots, 1));
+
+        assertEquals(-1, snapshots.get(0).getInstrumentId());
+        assertEquals(keyInShard[1], snapshots.get(1).getInstrumentId());
+    }
+
+    @Test
+    public void shouldKeepValuesWithoutKeysInOrder() {
+        ShardedCoalescingBuffer<Long, MarketSnapshot> buffer = new ShardedCoalescingBuffer<Long, MarketSnapshot>(4, 16);
+
+        for (long value = 0; value < 8; value++) {
+            assertTrue(buffer.offer(createMarketSnapshot(value, 1, 1)));
+        }
+
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+        assertEquals(8, buffer.shard(0).poll(snapshots));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, snapshots.get(i).getInstrumentId());
+        }
+    }
+
+    @Test
+    public void shouldOnlyMarkTheLastValueDrainedFromAllShardsAsTheEndOfBatch() {
+        ShardedCoalescingBuffer<Long, MarketSnapshot> buffer = new ShardedCoalescingBuffer<Long, MarketSnapshot>(4, 16);
+
+        for (long key = 0; key < 8; key++) {
+            assertTrue(buffer.offer(key, createMarketSnapshot(key, 1, 1)));
+        }
+
+        final List<Boolean> endOfBatches = new ArrayList<Boolean>();
+        assertEquals(8, buffer.drain(new ValueHandler<Long, MarketSnapshot>() {
+            @Override
+            public void onValue(Long key, MarketSnapshot value, boolean endOfBatch) {
+                endOfBatches.add(endOfBatch);
+            }
+        }));
+
+        assertEquals("[false, false, false, false, false, false, false, true]", endOfBatches.toString());
+    }
+
+    @Test
+    public void shouldTotalEveryShardInTheViewer() {
+        ShardedCoalescingBuffer<Long, MarketSnapshot> buffer = new ShardedCoalescingBuffer<Long, MarketSnapshot>(4, 16, true, 8);
+
+        for (long key = 0; key < 8; key++) {
+            assertTrue(buffer.offer(key, createMarketSnapshot(key, 1, 1)));
+            assertTrue(buffer.offer(key, createMarketSnapshot(key, 2, 2)));
+        }
+        assertTrue(buffer.offer(3L, createMarketSnapshot(3, 3, 3)));
+
+        int batches = 0;
+        for (int shard = 0; shard < buffer.numberOfShards(); shard++) {
+            batches += buffer.shard(shard).isEmpty() ? 0 : 1;
+        }
+        buffer.poll(new ArrayList<MarketSnapshot>());
+
+        CoalescingRingBufferViewer viewer = new CoalescingRingBufferViewer(buffer);
+        assertEquals(64, viewer.getCapacity());
+        assertEquals(0, viewer.getSize());
+        assertEquals(8, viewer.getAppendedCount());
+        assertEquals(9, viewer.getCoalescedCount());
+        assertEquals(8.0 / batches, viewer.getMeanBatchSize(), 0.0001);
+        assertEquals("3=3", viewer.getHotKeys()[0]);
+        assertTrue(viewer.isInstrumented());
+    }
+
+    @Test
+    public void shouldShowTheIndicesOfEachShardInTheViewer() {
+        ShardedCoalescingBuffer<Long, MarketSnapshot> buffer = new ShardedCoalescingBuffer<Long, MarketSnapshot>(2, 16);
+        long key = 0;
+        while (buffer.shardIndexOf(key) != 1) {
+            key++;
+        }
+        assertTrue(buffer.offer(key, createMarketSnapshot(key, 1, 1)));
+
+        CoalescingRingBufferViewer viewer = new CoalescingRingBufferViewer(buffer);
+        assertEquals(-1, viewer.getProducerIndex());
+        assertEquals(-1, viewer.getConsumerIndex());
+        assertArrayEquals(new long[] {1, 2}, viewer.getProducerIndices());
+        assertArrayEquals(new long[] {1, 1}, viewer.getConsumerIndices());
+        assertFalse(viewer.isInstrumented());
+    }
+
+}
@@ -17,11 +17,12 @@ package com.lmax.collections.coalescing.ring.buffer;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import static com.lmax.collections.coalescing.ring.buffer.MarketSnapshot.createMarketSnapshot;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
-public class ThreadSafetyTest {
+public class ThreadSafetyTest extends ProducerConsumerHarness<MarketSnapshot> {
 
     private static final int NUMBER_OF_INSTRUMENTS = 5000000;
     private static final long POISON_PILL = -1;
@@ -32,95 +33,85 @@ public class ThreadSafetyTest {
     private static final long FIRST_ASK = 5;
     private static final long SECOND_ASK = 6;
 
+    private CoalescingBuffer<Long, MarketSnapshot> buffer;
+    private final List<CoalescingBuffer<Long, MarketSnapshot>> consumerViews = new ArrayList<CoalescingBuffer<Long, MarketSnapshot>>();
+    private boolean[][] lastPriceSeen;
 
-    private static class Producer extends Thread {
-
-        private final CoalescingBuffer<Long, MarketSnapshot> snapshotBuffer;
+    public CoalescingBuffer<Long, MarketSnapshot> createBuffer(int capacity) {
+        return new CoalescingRingBuffer<Long, MarketSnapshot>(capacity);
+    }
 
-        private Producer(CoalescingBuffer<Long, MarketSnapshot> snapshotBuffer) {
-            super("producer");
-            this.snapshotBuffer = snapshotBuffer;
-        }
+    /**
+     * @return the buffer the consumers poll, a separate view of the producer's buffer where they would not share it
+     */
+    public CoalescingBuffer<Long, MarketSnapshot> consumerView(CoalescingBuffer<Long, MarketSnapshot> buffer) throws Exception {
+        return buffer;
+    }
 
-        @Override
-        public void run() {
-            for (long key = 0; key < NUMBER_OF_INSTRUMENTS; key++) {
-                put(key, FIRST_BID, FIRST_ASK);
-                put(key, SECOND_BID, SECOND_ASK);
-            }
+    /**
+     * @return true if the consumers may fall behind by a whole buffer, when the producer retries rather than fails
+     */
+    public boolean mayRejectOffers() {
+        return false;
+    }
 
-            put(POISON_PILL, POISON_PILL, POISON_PILL);
+    @Override
+    protected void produce(int producerId) {
+        for (long key = 0; key < NUMBER_OF_INSTRUMENTS; key++) {
+            put(key, FIRST_BID, FIRST_ASK);
+            put(key, SECOND_BID, SECOND_ASK);
         }
 
-        private void put(long key, long bid, long ask) {
-            boolean success = snapshotBuffer.offer(key, createMarketSnapshot(key, bid, ask));
-            if (!success) {
+        put(POISON_PILL, POISON_PILL, POISON_PILL);
+    }
+
+    private void put(long key, long bid, long ask) {
+        MarketSnapshot snapshot = createMarketSnapshot(key, bid, ask);
+        while (!buffer.offer(key, snapshot)) {
+            if (!mayRejectOffers()) {
                 throw new AssertionError("adding of key " + key + " failed");
             }
+            Thread.yield();
         }
     }
 
-    private static class Consumer extends Thread {
-        private final MarketSnapshot[] snapshots = new MarketSnapshot[NUMBER_OF_INSTRUMENTS];
-        private final CoalescingBuffer<Long, MarketSnapshot> snapshotBuffer;
-        private boolean useLimitedRead;
-
-        private Consumer(CoalescingBuffer<Long, MarketSnapshot> snapshotBuffer) {
-            super("consumer");
-            this.snapshotBuffer = snapshotBuffer;
+    @Override
+    protected void poll(int consumerId, List<MarketSnapshot> bucket, boolean limitedRead) {
+        if (limitedRead) {
+            consumerViews.get(consumerId).poll(bucket, 1);
         }
-
-        @Override
-        public void run() {
-            ArrayList<MarketSnapshot> bucket = new ArrayList<MarketSnapshot>();
-
-            while (true) {
-                fill(bucket);
-
-                for (MarketSnapshot snapshot : bucket) {
-                    if (snapshot.getInstrumentId() == POISON_PILL) {
-                        return;
-                    }
-
-                    snapshots[indexOf(snapshot)] = snapshot;
-                }
-
-                bucket.clear();
-            }
+        else {
+            consumerViews.get(consumerId).poll(bucket);
         }
+    }
 
-        private int indexOf(MarketSnapshot snapshot) {
-            return (int) snapshot.getInstrumentId();
-        }
+    @Override
+    protected boolean isPoisonPill(MarketSnapshot snapshot) {
+        return snapshot.getInstrumentId() == POISON_PILL;
+    }
 
-        private void fill(ArrayList<MarketSnapshot> bucket) {
-            if (useLimitedRead) {
-                snapshotBuffer.poll(bucket, 1);
-            }
-            else {
-                snapshotBuffer.poll(bucket);
-            }
-            useLimitedRead = !useLimitedRead;
-        }
+    @Override
+    protected void onValue(int consumerId, MarketSnapshot snapshot) {
+        lastPriceSeen[consumerId][(int) snapshot.getInstrumentId()] = snapshot.getBid() == SECOND_BID && snapshot.getAsk() == SECOND_ASK;
     }
 
     @Test
-    public void shouldSeeLastPrices() throws InterruptedException {
-        CoalescingBuffer<Long, MarketSnapshot> buffer = new CoalescingRingBuffer<Long, MarketSnapshot>(1 << 20);
-
-        Producer producer = new Producer(buffer);
-        Consumer consumer = new Consumer(buffer);
-
-        producer.start();
-        consumer.start();
+    public void shouldSeeLastPrices() throws Exception {
+        buffer = createBuffer(1 << 20);
+        for (int consumer = 0; consumer < numberOfConsumers(); consumer++) {
+            consumerViews.add(consumerView(buffer));
+        }
+        lastPriceSeen = new boolean[numberOfConsumers()][NUMBER_OF_INSTRUMENTS];
 
-        consumer.join();
+        runProducersAndConsumers();
 
         for (int instrument = 0; instrument < NUMBER_OF_INSTRUMENTS; instrument++) {
-            MarketSnapshot snapshot = consumer.snapshots[instrument];
+            boolean seen = false;
+            for (boolean[] consumerSeen : lastPriceSeen) {
+                seen |= consumerSeen[instrument];
+            }
 
-            assertEquals("bid for instrument " + instrument + ":", SECOND_BID, snapshot.getBid());
-            assertEquals("ask for instrument " + instrument + ":", SECOND_ASK, snapshot.getAsk());
+            assertTrue("second price for instrument " + instrument + " was not seen last", seen);
         }
     }
 
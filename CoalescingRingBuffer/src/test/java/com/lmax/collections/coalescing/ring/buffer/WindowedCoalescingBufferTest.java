@@ -0,0 +1,157 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WindowedCoalescingBufferTest {
+
+    private static final class ManualClock implements Clock {
+        private long nanoTime = 1000;
+
+        @Override
+        public long nanoTime() {
+            return nanoTime;
+        }
+
+        private void advance(long millis) {
+            nanoTime += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private final ManualClock clock = new ManualClock();
+    private WindowedCoalescingBuffer<String, String> buffer;
+
+    @Before
+    public void beforeEveryTest() {
+        buffer = new WindowedCoalescingBuffer<String, String>(new CoalescingRingBuffer<String, String>(16), 10, TimeUnit.MILLISECONDS, clock);
+    }
+
+    @Test
+    public void shouldDeliverTheFirstValuesImmediately() {
+        buffer.offer("VOD", "VOD 1");
+
+        assertEquals("[VOD 1]", poll().toString());
+    }
+
+    @Test
+    public void shouldHoldValuesUntilTheWindowCloses() {
+        buffer.offer("VOD", "VOD 1");
+        assertEquals(1, poll().size());
+
+        buffer.offer("VOD", "VOD 2");
+        buffer.offer("BP", "BP 1");
+        clock.advance(9);
+        assertEquals(0, poll().size());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), buffer.nanosUntilNextDelivery());
+
+        buffer.offer("VOD", "VOD 3");
+        clock.advance(1);
+        assertEquals(0, buffer.nanosUntilNextDelivery());
+        assertEquals("[VOD 3, BP 1]", poll().toString());
+    }
+
+    @Test
+    public void shouldStartTheWindowFromTheLastDeliveryRatherThanTheLastPoll() {
+        clock.advance(100);
+        assertEquals(0, poll().size());
+
+        buffer.offer("VOD", "VOD 1");
+        assertEquals(1, poll().size());
+    }
+
+    @Test
+    public void shouldDeliverABacklogLeftByALimitedPollWithoutWaiting() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        buffer.offer("RBS", "RBS 1");
+
+        List<String> values = new ArrayList<String>();
+        assertEquals(2, buffer.poll(values, 2));
+        assertEquals(1, buffer.poll(values, 2));
+        assertEquals("[VOD 1, BP 1, RBS 1]", values.toString());
+
+        buffer.offer("VOD", "VOD 2");
+        assertEquals(0, poll().size());
+    }
+
+    @Test
+    public void shouldNotDeliverAKeyOfferedAgainWhileABacklogDrainsUntilTheNextWindow() {
+        buffer.offer("VOD", "VOD 1");
+        buffer.offer("BP", "BP 1");
+        buffer.offer("RBS", "RBS 1");
+
+        List<String> values = new ArrayList<String>();
+        assertEquals(2, buffer.poll(values, 2));
+        buffer.offer("VOD", "VOD 2");
+        assertEquals(1, buffer.poll(values, 2));
+        assertEquals(0, buffer.poll(values, 2));
+        assertEquals("[VOD 1, BP 1, RBS 1]", values.toString());
+
+        clock.advance(10);
+        assertEquals("[VOD 2]", poll().toString());
+    }
+
+    @Test
+    public void shouldCarryOnDeliveringABacklogWhenExpiredValuesShortenABatch() {
+        CoalescingRingBuffer<String, String> expiring = new CoalescingRingBuffer<String, String>(16, null, clock, null);
+        buffer = new WindowedCoalescingBuffer<String, String>(expiring, 10, TimeUnit.MILLISECONDS, clock);
+
+        expiring.offerWithDeadline("VOD", "VOD 1", clock.nanoTime() + 1);
+        expiring.offer("BP", "BP 1");
+        expiring.offer("RBS", "RBS 1");
+        clock.advance(1);
+
+        List<String> values = new ArrayList<String>();
+        assertEquals(1, buffer.poll(values, 2));
+        assertEquals(1, buffer.poll(values, 2));
+        assertEquals("[BP 1, RBS 1]", values.toString());
+    }
+
+    @Test
+    public void shouldHoldDrainsUntilTheWindowCloses() {
+        final List<String> drained = new ArrayList<String>();
+        ValueHandler<String, String> handler = new ValueHandler<String, String>() {
+            @Override
+            public void onValue(String key, String value, boolean endOfBatch) {
+                drained.add(value);
+            }
+        };
+
+        buffer.offer("VOD", "VOD 1");
+        assertEquals(1, buffer.drain(handler));
+
+        buffer.offer("VOD", "VOD 2");
+        assertEquals(0, buffer.drain(handler));
+        clock.advance(10);
+        assertEquals(1, buffer.drain(handler));
+
+        assertEquals("[VOD 1, VOD 2]", drained.toString());
+    }
+
+    private List<String> poll() {
+        List<String> values = new ArrayList<String>();
+        buffer.poll(values);
+        return values;
+    }
+
+}
@@ -0,0 +1,4 @@
+package com.lmax.collections.coalescing.ring.buffer.benchmarks.jmh_generated;
+public class FalseSharingBenchmark_Padded_jmhType extends FalseSharingBenchmark_Padded_jmhType_B3 {
+}
+
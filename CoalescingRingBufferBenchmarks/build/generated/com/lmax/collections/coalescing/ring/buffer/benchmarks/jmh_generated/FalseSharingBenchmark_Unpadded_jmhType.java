@@ -0,0 +1,4 @@
+package com.lmax.collections.coalescing.ring.buffer.benchmarks.jmh_generated;
+public class FalseSharingBenchmark_Unpadded_jmhType extends FalseSharingBenchmark_Unpadded_jmhType_B3 {
+}
+
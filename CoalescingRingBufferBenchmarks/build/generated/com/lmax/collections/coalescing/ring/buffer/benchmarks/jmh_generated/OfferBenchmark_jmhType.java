@@ -0,0 +1,4 @@
+package com.lmax.collections.coalescing.ring.buffer.benchmarks.jmh_generated;
+public class OfferBenchmark_jmhType extends OfferBenchmark_jmhType_B3 {
+}
+
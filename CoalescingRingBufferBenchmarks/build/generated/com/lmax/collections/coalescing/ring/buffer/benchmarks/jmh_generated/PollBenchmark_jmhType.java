@@ -0,0 +1,4 @@
+package com.lmax.collections.coalescing.ring.buffer.benchmarks.jmh_generated;
+public class PollBenchmark_jmhType extends PollBenchmark_jmhType_B3 {
+}
+
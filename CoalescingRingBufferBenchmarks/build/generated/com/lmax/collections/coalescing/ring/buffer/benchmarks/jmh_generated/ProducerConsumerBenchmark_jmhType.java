@@ -0,0 +1,4 @@
+package com.lmax.collections.coalescing.ring.buffer.benchmarks.jmh_generated;
+public class ProducerConsumerBenchmark_jmhType extends ProducerConsumerBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,52 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer.benchmarks;
+
+import com.lmax.collections.coalescing.ring.buffer.CoalescingBuffer;
+import com.lmax.collections.coalescing.ring.buffer.CoalescingRingBuffer;
+import com.lmax.collections.coalescing.ring.buffer.LongKeyCoalescingRingBuffer;
+
+/**
+ * The buffer implementations the benchmarks are run against, selected through a @Param
+ */
+public enum BufferType {
+
+    OBJECT_KEY {
+        @Override
+        CoalescingBuffer<Long, Object> create(int capacity) {
+            return new CoalescingRingBuffer<Long, Object>(capacity);
+        }
+    },
+
+    LONG_KEY {
+        @Override
+        CoalescingBuffer<Long, Object> create(int capacity) {
+            return new LongKeyCoalescingRingBuffer<Object>(capacity);
+        }
+    };
+
+    abstract CoalescingBuffer<Long, Object> create(int capacity);
+
+    static Long[] createKeys(int numberOfKeys) {
+        Long[] keys = new Long[numberOfKeys];
+
+        for (int i = 0; i < numberOfKeys; i++) {
+            keys[i] = (long) i;
+        }
+
+        return keys;
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A producer advancing its write sequence while a consumer advances its read sequence, each reading the other's,
+ * with the two sequences next to each other and padded onto separate cache lines the way RingBufferSequences
+ * lays them out. Run with a thread per core, on one core both groups score the same.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FalseSharingBenchmark {
+
+    @State(Scope.Group)
+    public static class Unpadded {
+        volatile long nextWrite = 1;
+        volatile long lastRead = 0;
+    }
+
+    private static final AtomicLongFieldUpdater<Unpadded> UNPADDED_NEXT_WRITE =
+            AtomicLongFieldUpdater.newUpdater(Unpadded.class, "nextWrite");
+
+    private static final AtomicLongFieldUpdater<Unpadded> UNPADDED_LAST_READ =
+            AtomicLongFieldUpdater.newUpdater(Unpadded.class, "lastRead");
+
+    public static class PaddedProducerSequence {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+        volatile long nextWrite = 1;
+    }
+
+    public static class PaddedProducerPadding extends PaddedProducerSequence {
+        protected long p9, p10, p11, p12, p13, p14, p15;
+    }
+
+    @State(Scope.Group)
+    public static class Padded extends PaddedProducerPadding {
+        volatile long lastRead = 0;
+        protected long p17, p18, p19, p20, p21, p22, p23;
+    }
+
+    private static final AtomicLongFieldUpdater<PaddedProducerSequence> PADDED_NEXT_WRITE =
+            AtomicLongFieldUpdater.newUpdater(PaddedProducerSequence.class, "nextWrite");
+
+    private static final AtomicLongFieldUpdater<Padded> PADDED_LAST_READ =
+            AtomicLongFieldUpdater.newUpdater(Padded.class, "lastRead");
+
+    @Benchmark
+    @Group("unpadded")
+    @GroupThreads(1)
+    public long unpaddedProducer(Unpadded sequences) {
+        UNPADDED_NEXT_WRITE.lazySet(sequences, sequences.nextWrite + 1);
+        return sequences.lastRead;
+    }
+
+    @Benchmark
+    @Group("unpadded")
+    @GroupThreads(1)
+    public long unpaddedConsumer(Unpadded sequences) {
+        UNPADDED_LAST_READ.lazySet(sequences, sequences.lastRead + 1);
+        return sequences.nextWrite;
+    }
+
+    @Benchmark
+    @Group("padded")
+    @GroupThreads(1)
+    public long paddedProducer(Padded sequences) {
+        PADDED_NEXT_WRITE.lazySet(sequences, sequences.nextWrite + 1);
+        return sequences.lastRead;
+    }
+
+    @Benchmark
+    @Group("padded")
+    @GroupThreads(1)
+    public long paddedConsumer(Padded sequences) {
+        PADDED_LAST_READ.lazySet(sequences, sequences.lastRead + 1);
+        return sequences.nextWrite;
+    }
+
+}
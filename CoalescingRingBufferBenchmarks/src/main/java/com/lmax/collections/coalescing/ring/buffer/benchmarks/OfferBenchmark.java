@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer.benchmarks;
+
+import com.lmax.collections.coalescing.ring.buffer.CoalescingBuffer;
+import com.lmax.collections.coalescing.ring.buffer.ValueHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of a single offer from the producer, either collapsing onto a pending key or appending a new one
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class OfferBenchmark {
+    private static final Object VALUE = new Object();
+
+    @Param({"10", "1000", "100000"})
+    private int numberOfKeys;
+
+    @Param({"1048576"})
+    private int capacity;
+
+    @Param({"OBJECT_KEY", "LONG_KEY"})
+    private BufferType bufferType;
+
+    private CoalescingBuffer<Long, Object> buffer;
+    private Long[] keys;
+    private int nextKey;
+    private Long[] newKeys;
+    private int nextNewKey;
+
+    private final ValueHandler<Long, Object> discard = new ValueHandler<Long, Object>() {
+        @Override
+        public void onValue(Long key, Object value, boolean endOfBatch) {
+        }
+    };
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        buffer = bufferType.create(capacity);
+        keys = BufferType.createKeys(numberOfKeys);
+
+        // every key is pending so that coalescing offers always find a match
+        for (Long key : keys) {
+            buffer.offer(key, VALUE);
+        }
+
+        // one more new key than the buffer holds, so a key comes round again only after the drain that removed it
+        newKeys = new Long[buffer.capacity() + 1];
+        for (int i = 0; i < newKeys.length; i++) {
+            newKeys[i] = (long) numberOfKeys + i;
+        }
+        nextNewKey = 0;
+    }
+
+    @Benchmark
+    public boolean coalescingHit() {
+        if (nextKey == numberOfKeys) {
+            nextKey = 0;
+        }
+
+        return buffer.offer(keys[nextKey++], VALUE);
+    }
+
+    /**
+     * appends a new key each time, draining the buffer whenever it fills so the cost of the drain is amortised
+     */
+    @Benchmark
+    public boolean newKey() {
+        if (nextNewKey == newKeys.length) {
+            nextNewKey = 0;
+        }
+
+        Long key = newKeys[nextNewKey++];
+
+        if (!buffer.offer(key, VALUE)) {
+            buffer.drain(discard);
+            return buffer.offer(key, VALUE);
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer.benchmarks;
+
+import com.lmax.collections.coalescing.ring.buffer.CoalescingBuffer;
+import com.lmax.collections.coalescing.ring.buffer.ValueHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of offering and then consuming a batch of values, through poll into a collection or drain into a handler
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PollBenchmark {
+
+    @Param({"1", "16", "256"})
+    private int batchSize;
+
+    @Param({"1024"})
+    private int capacity;
+
+    @Param({"OBJECT_KEY", "LONG_KEY"})
+    private BufferType bufferType;
+
+    private CoalescingBuffer<Long, Object> buffer;
+    private Long[] keys;
+    private final Object value = new Object();
+    private final List<Object> bucket = new ArrayList<Object>();
+    private ValueHandler<Long, Object> handler;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        buffer = bufferType.create(capacity);
+        keys = BufferType.createKeys(batchSize);
+
+        handler = new ValueHandler<Long, Object>() {
+            @Override
+            public void onValue(Long key, Object value, boolean endOfBatch) {
+                blackhole.consume(value);
+            }
+        };
+    }
+
+    @Benchmark
+    public int pollBatch(Blackhole blackhole) {
+        offerBatch();
+
+        int count = buffer.poll(bucket);
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(bucket.get(i));
+        }
+        bucket.clear();
+
+        return count;
+    }
+
+    @Benchmark
+    public int drainBatch() {
+        offerBatch();
+        return buffer.drain(handler);
+    }
+
+    private void offerBatch() {
+        for (Long key : keys) {
+            buffer.offer(key, value);
+        }
+    }
+
+}
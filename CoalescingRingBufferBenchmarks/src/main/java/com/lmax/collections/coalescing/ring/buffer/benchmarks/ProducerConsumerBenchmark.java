@@ -0,0 +1,85 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lmax.collections.coalescing.ring.buffer.benchmarks;
+
+import com.lmax.collections.coalescing.ring.buffer.CoalescingBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A producer and a consumer running concurrently against the same buffer, the producer score is the offer
+ * throughput and the consumer score is the rate at which it polls, compare the two for the compression ratio
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Group)
+public class ProducerConsumerBenchmark {
+    private static final Object VALUE = new Object();
+
+    @Param({"10", "1000", "100000"})
+    private int numberOfKeys;
+
+    @Param({"1024", "1048576"})
+    private int capacity;
+
+    @Param({"OBJECT_KEY", "LONG_KEY"})
+    private BufferType bufferType;
+
+    private CoalescingBuffer<Long, Object> buffer;
+    private Long[] keys;
+
+    @Setup
+    public void setUp() {
+        buffer = bufferType.create(capacity);
+        keys = BufferType.createKeys(numberOfKeys);
+    }
+
+    @State(Scope.Thread)
+    public static class ProducerState {
+        int nextKey;
+    }
+
+    @State(Scope.Thread)
+    public static class ConsumerState {
+        final List<Object> bucket = new ArrayList<Object>();
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public boolean offer(ProducerState producer) {
+        if (producer.nextKey == numberOfKeys) {
+            producer.nextKey = 0;
+        }
+
+        return buffer.offer(keys[producer.nextKey++], VALUE);
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public int poll(ConsumerState consumer) {
+        int count = buffer.poll(consumer.bucket);
+        consumer.bucket.clear();
+        return count;
+    }
+
+}